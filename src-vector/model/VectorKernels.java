@@ -0,0 +1,159 @@
+package model;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class implements the innermost loops with the Vector API, so that several pixels are
+ * processed per instruction. It lives in its own source folder because it needs the
+ * jdk.incubator.vector module to compile and to run; VectorSupport only loads it when that module
+ * is present. The arithmetic is done in the same order as in ScalarKernels (a multiply followed by
+ * an add, never a fused multiply-add), so the results are the same.
+ */
+final class VectorKernels implements PixelKernels {
+
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_128;
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_256;
+  private static final VectorSpecies<Integer> WIDE_INTS = IntVector.SPECIES_256;
+
+  @Override
+  public String name() {
+    return "vector (" + DOUBLES.vectorBitSize() + "-bit)";
+  }
+
+  @Override
+  public void addWeighted(double[] acc, byte[] plane, int base, int from, int to,
+      double weight) {
+    int x = from;
+    int step = BYTES.length();
+
+    // each 8 bytes are widened to two vectors of four doubles
+    for (; x + step <= to; x += step) {
+      ByteVector bytes = ByteVector.fromArray(BYTES, plane, base + x);
+      for (int part = 0; part < 2; part++) {
+        IntVector ints = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, part))
+            .and(0xFF);
+        DoubleVector values = (DoubleVector) ints.convertShape(VectorOperators.I2D, DOUBLES, 0);
+        int index = x + part * DOUBLES.length();
+        DoubleVector.fromArray(DOUBLES, acc, index).add(values.mul(weight))
+            .intoArray(acc, index);
+      }
+    }
+
+    for (; x < to; x++) {
+      acc[x] += weight * (plane[base + x] & 0xFF);
+    }
+  }
+
+  @Override
+  public void addWeighted(double[] acc, double[] src, int length, double weight) {
+    int x = 0;
+    for (; x < DOUBLES.loopBound(length); x += DOUBLES.length()) {
+      DoubleVector.fromArray(DOUBLES, acc, x)
+          .add(DoubleVector.fromArray(DOUBLES, src, x).mul(weight))
+          .intoArray(acc, x);
+    }
+
+    for (; x < length; x++) {
+      acc[x] += weight * src[x];
+    }
+  }
+
+  @Override
+  public void addWeighted(int[] acc, byte[] plane, int base, int from, int to, int weight) {
+    int x = from;
+    int step = BYTES.length();
+
+    // each 8 bytes are widened to one vector of eight integers
+    for (; x + step <= to; x += step) {
+      IntVector values = ((IntVector) ByteVector.fromArray(BYTES, plane, base + x)
+          .convertShape(VectorOperators.B2I, WIDE_INTS, 0)).and(0xFF);
+      IntVector.fromArray(WIDE_INTS, acc, x).add(values.mul(weight)).intoArray(acc, x);
+    }
+
+    for (; x < to; x++) {
+      acc[x] += weight * (plane[base + x] & 0xFF);
+    }
+  }
+
+  @Override
+  public void addWeighted(int[] acc, int[] src, int length, int weight) {
+    int x = 0;
+    for (; x < WIDE_INTS.loopBound(length); x += WIDE_INTS.length()) {
+      IntVector.fromArray(WIDE_INTS, acc, x)
+          .add(IntVector.fromArray(WIDE_INTS, src, x).mul(weight))
+          .intoArray(acc, x);
+    }
+
+    for (; x < length; x++) {
+      acc[x] += weight * src[x];
+    }
+  }
+
+  @Override
+  public void applyColor(double[] m, int[] src, int[] dest, int from, int to) {
+    int i = from;
+    for (; i + INTS.length() <= to; i += INTS.length()) {
+      IntVector pixels = IntVector.fromArray(INTS, src, i);
+      DoubleVector red = toDoubles(pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF));
+      DoubleVector green = toDoubles(pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF));
+      DoubleVector blue = toDoubles(pixels.and(0xFF));
+
+      IntVector newRed = channel(m[0], m[1], m[2], red, green, blue);
+      IntVector newGreen = channel(m[3], m[4], m[5], red, green, blue);
+      IntVector newBlue = channel(m[6], m[7], m[8], red, green, blue);
+
+      newRed.lanewise(VectorOperators.LSHL, 16)
+          .or(newGreen.lanewise(VectorOperators.LSHL, 8))
+          .or(newBlue)
+          .or(0xFF000000)
+          .intoArray(dest, i);
+    }
+
+    for (; i < to; i++) {
+      int value = src[i];
+      int red = (value >> 16) & 0xFF;
+      int green = (value >> 8) & 0xFF;
+      int blue = value & 0xFF;
+
+      dest[i] = PackedImage.pack(
+          PackedImage.clamp(m[0] * red + m[1] * green + m[2] * blue),
+          PackedImage.clamp(m[3] * red + m[4] * green + m[5] * blue),
+          PackedImage.clamp(m[6] * red + m[7] * green + m[8] * blue));
+    }
+  }
+
+  /**
+   * Widens four integer channel values to doubles.
+   *
+   * @param ints the channel values
+   * @return the values as doubles
+   */
+  private static DoubleVector toDoubles(IntVector ints) {
+    return (DoubleVector) ints.convertShape(VectorOperators.I2D, DOUBLES, 0);
+  }
+
+  /**
+   * Computes one output channel from one row of the color matrix, then clamps it to 0-255 and
+   * rounds it. Adding one half and truncating rounds the same way as Math.round for the clamped,
+   * non-negative values.
+   *
+   * @param first  the weight of the red channel
+   * @param second the weight of the green channel
+   * @param third  the weight of the blue channel
+   * @param red    the red values
+   * @param green  the green values
+   * @param blue   the blue values
+   * @return the output channel as integers between 0 and 255
+   */
+  private static IntVector channel(double first, double second, double third, DoubleVector red,
+      DoubleVector green, DoubleVector blue) {
+    DoubleVector value = red.mul(first).add(green.mul(second)).add(blue.mul(third))
+        .max(0).min(255).add(0.5);
+    return (IntVector) value.convertShape(VectorOperators.D2I, INTS, 0);
+  }
+}
@@ -0,0 +1,119 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import model.ILayer;
+import model.ILayerModel;
+import model.ImageRep;
+import model.ManagedImage;
+import model.PackedImage;
+
+/**
+ * This class holds the image that the view shows for the top visible layer of a model. When the
+ * layer is backed by a PackedImage, the BufferedImage is a view of the packed array itself,
+ * through a color model that reads the red, green and blue bits of each integer, so nothing is
+ * copied. Since an image can not change, the same BufferedImage is handed out again for as long as
+ * the layer keeps the same image.
+ *
+ * <p>A ManagedImage (off the heap or in tiles on the disk) can be far larger than the heap, so it
+ * is shown as a preview of at most PREVIEW_PIXELS pixels: every step-th pixel of every step-th row,
+ * read a row at a time with getRGB. Other images are copied whole. Both are written into one
+ * TYPE_INT_RGB buffer that is kept and updated in place while the size stays the same.
+ */
+final class DisplayBuffer {
+
+  /**
+   * The largest number of pixels shown for a ManagedImage.
+   */
+  static final int PREVIEW_PIXELS = 1 << 24;
+
+  private static final DirectColorModel RGB = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+  private ImageRep shown;
+  private BufferedImage image;
+  private boolean shared;
+
+  /**
+   * Gives the image to show for the top visible layer of the given model.
+   *
+   * @param model the model whose top visible layer is shown
+   * @return the BufferedImage with the pixels of the layer, which must only be read
+   */
+  BufferedImage update(ILayerModel model) {
+    ILayer topVisible = model.topVisible();
+    if (topVisible.getHeight() == 1 || topVisible.getWidth() == 1) {
+      shown = null;
+      return FileActions.topVisibleBuffer(model);
+    }
+
+    ImageRep rep = topVisible.getImage();
+    if (rep == shown) {
+      return image;
+    }
+
+    int height = rep.getHeight();
+    int width = rep.getWidth();
+    if (rep instanceof PackedImage) {
+      DataBufferInt data = new DataBufferInt(((PackedImage) rep).data(), height * width);
+      WritableRaster raster = Raster.createPackedRaster(data, width, height, width,
+          RGB.getMasks(), null);
+      image = new BufferedImage(RGB, raster, false, null);
+      shared = true;
+    } else if (rep instanceof ManagedImage) {
+      int step = previewStep(height, width);
+      int rows = (height + step - 1) / step;
+      int columns = (width + step - 1) / step;
+      int[] data = buffer(rows, columns);
+      int[] line = new int[width];
+      for (int i = 0; i < rows; i++) {
+        if (step == 1) {
+          rep.getRGB(i, 0, 1, width, data, i * columns, columns);
+        } else {
+          rep.getRGB(i * step, 0, 1, width, line, 0, width);
+          for (int j = 0; j < columns; j++) {
+            data[i * columns + j] = line[j * step];
+          }
+        }
+      }
+    } else {
+      rep.getRGB(0, 0, height, width, buffer(height, width), 0, width);
+    }
+    shown = rep;
+    return image;
+  }
+
+  /**
+   * Gives how many pixels apart the pixels of the preview of an image are taken, so that the
+   * preview has at most PREVIEW_PIXELS pixels.
+   *
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @return the distance between the pixels that are shown, 1 to show every pixel
+   */
+  static int previewStep(int height, int width) {
+    int step = (int) Math.max(1, Math.ceil(Math.sqrt((double) height * width / PREVIEW_PIXELS)));
+    while ((long) ((height + step - 1) / step) * ((width + step - 1) / step) > PREVIEW_PIXELS) {
+      step++;
+    }
+    return step;
+  }
+
+  /**
+   * Gives the array of a TYPE_INT_RGB image of the given size to be shown, reusing the current
+   * one when it has that size and is not a view of a PackedImage.
+   *
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @return the array behind the raster of the image
+   */
+  private int[] buffer(int height, int width) {
+    if (image == null || shared || image.getHeight() != height || image.getWidth() != width) {
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      shared = false;
+    }
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+}
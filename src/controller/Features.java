@@ -1,6 +1,7 @@
 package controller;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * A set of features for the image manipulation program that will be implemented by a Swing
@@ -64,6 +65,13 @@ public interface Features {
    */
   String getCurrName();
 
+  /**
+   * Gives the names of all the layers in the model, from the top layer to the bottom one.
+   *
+   * @return the names of the layers
+   */
+  List<String> getLayerNames();
+
   /**
    * Performs actions on both the model and the view to reflect the changes of a toggle event.
    * A toggle visible event should toggle the visibility of an image in the model and update
@@ -79,13 +87,15 @@ public interface Features {
 
   /**
    * Performs actions on both the model and the view to reflect the changes of a export all
-   * event. An export all event should export all the layers in the model.
+   * event. An export all event should export all the layers in the model. A path that ends in
+   * ".layers" is written as a single project file, any other path gets a folder of layer files.
    */
   void exportAll(String path) throws IOException;
 
   /**
    * Performs actions on both the model and the view to reflect the changes of a import all event.
-   * An import all event should import the layers into the model and update the view.
+   * An import all event should import the layers into the model and update the view. A path that
+   * ends in ".layers" is read as a project file, any other path as a folder of layer files.
    */
   void importAll(String path) throws IOException;
 
@@ -2,30 +2,40 @@ package controller;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.Scanner;
 import javax.imageio.ImageIO;
 import model.ILayer;
 import model.ILayerModel;
-import model.IPixel;
-import model.Image;
+import model.ImageBuffer;
 import model.ImageRep;
-import model.Pixel;
+import model.ManagedImage;
+import model.PackedImage;
 
 /**
  * This class represents the file actions that can be performed within the image processing model.
@@ -35,6 +45,48 @@ import model.Pixel;
  */
 public class FileActions {
 
+  private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * This represents the work of reading or writing the file of one layer.
+   *
+   * @param <T> what the work gives back
+   */
+  interface LayerTask<T> {
+
+    /**
+     * Reads or writes the file of the layer.
+     *
+     * @return the result of the work
+     * @throws IOException if the file can not be read or written
+     */
+    T run() throws IOException;
+  }
+
+  /**
+   * Sets how many layers exportAllLayers and importLayers read or write at the same time. A
+   * parallelism of 1 handles every layer on the calling thread.
+   *
+   * @param parallelism the largest number of layers handled at once
+   * @throws IllegalArgumentException if the parallelism is less than 1
+   */
+  public static synchronized void setParallelism(int parallelism)
+      throws IllegalArgumentException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1.");
+    }
+    FileActions.parallelism = parallelism;
+  }
+
+  /**
+   * Gives how many layers exportAllLayers and importLayers read or write at the same time.
+   *
+   * @return the largest number of layers handled at once
+   */
+  public static synchronized int getParallelism() {
+    return parallelism;
+  }
+
   /**
    * This will read an image of popular filetypes (ie. png or jpeg) without alpha channels. It will
    * turn it into an ImageRep so it can be utilized by the model, view, and controller.
@@ -49,16 +101,10 @@ public class FileActions {
       BufferedImage input = ImageIO.read(fileStream);
       fileStream.close();
 
-      Pixel[][] arr = new Pixel[input.getHeight()][input.getWidth()];
-
-      for (int i = 0; i < input.getHeight(); i++) {
-        for (int j = 0; j < input.getWidth(); j++) {
-          int colorCode = input.getRGB(j, i);
-          Color color = new Color(colorCode);
-          arr[i][j] = new Pixel(color.getRed(), color.getGreen(), color.getBlue());
-        }
+      if (input == null) {
+        throw new IOException("Error reading image");
       }
-      return new Image(arr);
+      return RasterBridge.toImage(input);
     } catch (IOException err) {
       throw new IOException("Error reading image");
     }
@@ -75,25 +121,13 @@ public class FileActions {
   public static void writeImage(ILayerModel model, String name) throws
       IOException, IllegalArgumentException {
 
-    int rows = model.topVisible().getHeight();
-    int columns = model.topVisible().getWidth();
-
-    BufferedImage bufferedImage = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB);
-
-    for (int i = 0; i < rows; i++) {
-      for (int j = 0; j < columns; j++) {
-        Color color = new Color(model.topVisible().getPixelAt(i, j).getRed(),
-            model.topVisible().getPixelAt(i, j).getGreen(),
-            model.topVisible().getPixelAt(i, j).getBlue());
-        bufferedImage.setRGB(j, i, color.getRGB());
-      }
-    }
-
-    String ext = name.substring(name.indexOf(".") + 1);
-    if (!ext.equals("png") || !ext.equals("jpeg")) {
+    String ext = name.substring(name.lastIndexOf(".") + 1);
+    if (!ext.equals("png") && !ext.equals("jpeg")) {
       throw new IllegalArgumentException("Need to use png, ppm, or jpeg extension");
     }
 
+    BufferedImage bufferedImage = RasterBridge.toBufferedImage(model.topVisible());
+
     FileOutputStream output = new FileOutputStream(name);
     ImageIO.write(bufferedImage, ext, output);
     output.close();
@@ -115,46 +149,58 @@ public class FileActions {
       throw new IllegalArgumentException("The name must end in .ppm");
     }
 
-    Appendable appendable = new StringBuilder();
+    writePlain(fileName, currentImage(model));
+  }
 
-    if (model.getHeight() == 0 || model.getWidth() == 0) {
+  /**
+   * Writes an image to a plain PPM (P3) file.
+   *
+   * @param fileName the name of the new file
+   * @param image    the image to be written
+   * @throws IOException           if theres an error writing the file
+   * @throws IllegalStateException if the image is empty
+   */
+  private static void writePlain(String fileName, ImageRep image) throws IOException,
+      IllegalStateException {
+    if (image.getHeight() == 0 || image.getWidth() == 0) {
       throw new IllegalStateException("There is no image in the model");
     }
 
-    try {
-      appendable.append("P3\n" + model.getWidth() + " "
-          + model.getHeight() + "\n" + "255\n");
-
-      for (int i = 0; i < model.getHeight(); i++) {
-        for (int j = 0; j < model.getWidth(); j++) {
-          IPixel curr = model.getPixelAt(i, j);
-          appendable.append(curr.getRed() + "\n");
-          appendable.append(curr.getGreen() + "\n");
-          appendable.append(curr.getBlue() + "\n");
-        }
-      }
-    } catch (IOException err) {
-      throw new IOException("Error appending to appendable");
-    }
+    // every value is formatted straight into one reused buffer, which is written out
+    // whenever it fills up, so the whole file is never held in memory
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] row = new int[width];
+    byte[] buffer = new byte[1 << 16];
+    int length = 0;
 
-    BufferedWriter out = null;
+    try (FileOutputStream out = new FileOutputStream(fileName)) {
+      byte[] header = ("P3\n" + width + " " + height + "\n" + "255\n")
+          .getBytes(StandardCharsets.US_ASCII);
+      out.write(header);
 
-    try {
-      File file = new File(fileName);
-      out = new BufferedWriter(new FileWriter(file));
-      out.write(appendable.toString());
+      for (int i = 0; i < height; i++) {
+        image.getRGB(i, 0, 1, width, row, 0, width);
+        for (int j = 0; j < width; j++) {
+          if (length > buffer.length - 12) {
+            out.write(buffer, 0, length);
+            length = 0;
+          }
+          length = appendValue(buffer, length, (row[j] >> 16) & 0xFF);
+          length = appendValue(buffer, length, (row[j] >> 8) & 0xFF);
+          length = appendValue(buffer, length, row[j] & 0xFF);
+        }
+      }
+      out.write(buffer, 0, length);
     } catch (IOException e) {
       throw new IOException("Error writing file");
-    } finally {
-      if (out != null) {
-        out.close();
-      }
     }
   }
 
   /**
    * Reads a PPM file off the disk and converts it to the ImageRep format that can be used by the
-   * model, view or controller. The path of the file is provided in the String parameter.
+   * model, view or controller. The path of the file is provided in the String parameter. Both plain
+   * (P3) and binary (P6) files are read, as well as the other formats that readPNM reads.
    *
    * @param file the path of the file
    * @return an ImageRep that is usable by the model
@@ -162,60 +208,229 @@ public class FileActions {
    * @throws IllegalArgumentException if the file is not found
    */
   public static ImageRep readPPM(String file) throws IOException, IllegalArgumentException {
-    Scanner sc;
+    return readPNM(file);
+  }
+
+  /**
+   * Reads a netpbm file off the disk: a plain or binary PPM (P3 or P6), a plain or binary PGM (P2
+   * or P5), or a PAM (P7) with a greyscale or RGB tuple type, with or without alpha. The format is
+   * told by the first bytes of the file. Grey pixels are read as equal red, green and blue values,
+   * alpha is dropped, and files with a maximum value other than 255 are scaled to 8 bits.
+   *
+   * @param file the path of the file
+   * @return an ImageRep that is usable by the model
+   * @throws IOException              if there is an error reading the data
+   * @throws IllegalArgumentException if the file is not found or is not a valid netpbm file
+   */
+  public static ImageRep readPNM(String file) throws IOException, IllegalArgumentException {
+    FileChannel channel;
 
     try {
-      sc = new Scanner(new FileInputStream(file));
-    } catch (FileNotFoundException e) {
+      channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    } catch (NoSuchFileException | InvalidPathException e) {
       throw new IllegalArgumentException("File not found");
     }
-    StringBuilder builder = new StringBuilder();
-    //read the file line by line, and populate a string. This will throw away any comment lines
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
 
-      if (s.length() > 0) {
-        if (s.charAt(0) != '#') {
-          builder.append(s + System.lineSeparator());
+    // the file is read as a stream of tokens, with comments skipped wherever they appear
+    try (PnmScanner sc = new PnmScanner(channel)) {
+      String magic = sc.nextToken();
+      int width;
+      int height;
+      int maxValue;
+      int depth;
+      if (magic.equals("P7")) {
+        int[] header = readPamHeader(sc);
+        width = header[0];
+        height = header[1];
+        depth = header[2];
+        maxValue = header[3];
+      } else if (magic.equals("P2") || magic.equals("P3") || magic.equals("P5")
+          || magic.equals("P6")) {
+        width = sc.nextInt();
+        height = sc.nextInt();
+        maxValue = sc.nextInt();
+        depth = magic.equals("P2") || magic.equals("P5") ? 1 : 3;
+      } else {
+        throw new IllegalArgumentException(
+            "Invalid PPM file: the file should begin with P2, P3, P5, P6 or P7");
+      }
+      System.out.println("Height of image: " + height);
+      System.out.println("Maximum value of a color in this file (usually 255): " + maxValue);
+      if (maxValue < 1 || maxValue > 65535) {
+        throw new IllegalArgumentException("The maximum value must be between 1 and 65535.");
+      }
+
+      boolean plain = magic.equals("P2") || magic.equals("P3");
+      long rowLength = PnmRaster.rowLength(width, depth, maxValue);
+      if (!plain && rowLength * height >= PnmRaster.MAP_THRESHOLD) {
+        // large rasters are decoded straight from the pages of the file
+        return PnmRaster.readMapped(channel, sc.position(), height, width, depth, maxValue);
+      }
+      if (!plain && rowLength > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("The rows of the image are too long.");
+      }
+
+      ImageBuffer pixelArray = ImageBuffer.forSize(height, width);
+      int[] row = new int[width];
+      byte[] bytes = new byte[plain ? 0 : (int) rowLength];
+      ByteBuffer rowBuffer = ByteBuffer.wrap(bytes);
+
+      for (int i = 0; i < height; i++) {
+        if (plain) {
+          for (int j = 0; j < width; j++) {
+            int r = PnmRaster.scale(sc.nextInt(), maxValue);
+            int g = depth == 1 ? r : PnmRaster.scale(sc.nextInt(), maxValue);
+            int b = depth == 1 ? r : PnmRaster.scale(sc.nextInt(), maxValue);
+            row[j] = PackedImage.pack(r, g, b);
+          }
+        } else {
+          sc.readFully(bytes, 0, bytes.length);
+          PnmRaster.decodeRow(rowBuffer, 0, row, width, depth, maxValue);
         }
+        pixelArray.setRGB(i, 0, 1, width, row, 0, width);
+      }
+      return pixelArray.toImage();
+    }
+  }
+
+  /**
+   * Writes the current image in the model to a netpbm file on the disk in the given format. The
+   * plain format is written the same way as toPPM.
+   *
+   * @param fileName the name of the new file, which must end in the extension of the format
+   * @param model    the model where the image lives as "current"
+   * @param format   the format of the file
+   * @throws IOException              if theres an error writing the file
+   * @throws IllegalArgumentException if the name does not end in the extension of the format
+   * @throws IllegalStateException    if theres no image
+   */
+  public static void writePNM(String fileName, ILayerModel model, PnmFormat format)
+      throws IOException, IllegalArgumentException {
+    if (format == null || !fileName.endsWith(format.getExtension())) {
+      throw new IllegalArgumentException("The name must end in the extension of the format");
+    }
+    writePNM(fileName, currentImage(model), format);
+  }
+
+  /**
+   * Writes the image of one layer to a netpbm file on the disk in the given format. This does not
+   * change which layer of the model is current, so different layers can be written at the same
+   * time.
+   *
+   * @param fileName the name of the new file, which must end in the extension of the format
+   * @param layer    the layer to be written
+   * @param format   the format of the file
+   * @throws IOException              if theres an error writing the file
+   * @throws IllegalArgumentException if the name does not end in the extension of the format
+   * @throws IllegalStateException    if the layer has no image
+   */
+  public static void writePNM(String fileName, ILayer layer, PnmFormat format)
+      throws IOException, IllegalArgumentException {
+    if (format == null || !fileName.endsWith(format.getExtension())) {
+      throw new IllegalArgumentException("The name must end in the extension of the format");
+    }
+    writePNM(fileName, layer.getImage(), format);
+  }
+
+  /**
+   * Writes an image to a netpbm file on the disk in the given format.
+   *
+   * @param fileName the name of the new file
+   * @param image    the image to be written
+   * @param format   the format of the file
+   * @throws IOException           if theres an error writing the file
+   * @throws IllegalStateException if the image is empty
+   */
+  private static void writePNM(String fileName, ImageRep image, PnmFormat format)
+      throws IOException, IllegalStateException {
+    if (format == PnmFormat.PLAIN_PPM) {
+      writePlain(fileName, image);
+      return;
+    }
+    if (image.getHeight() == 0 || image.getWidth() == 0) {
+      throw new IllegalStateException("There is no image in the model");
+    }
+
+    int width = image.getWidth();
+    int height = image.getHeight();
+    String header;
+    if (format == PnmFormat.PAM) {
+      header = "P7\nWIDTH " + width + "\nHEIGHT " + height
+          + "\nDEPTH 3\nMAXVAL 255\nTUPLTYPE RGB\nENDHDR\n";
+    } else {
+      header = format.getMagic() + "\n" + width + " " + height + "\n255\n";
+    }
+
+    int depth = format == PnmFormat.PGM ? 1 : 3;
+    byte[] head = header.getBytes(StandardCharsets.US_ASCII);
+    if ((long) width * height * depth >= PnmRaster.MAP_THRESHOLD) {
+      // large rasters are written straight into the pages of the file
+      try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        PnmRaster.writeMapped(channel, head, image, depth);
+      } catch (IOException e) {
+        throw new IOException("Error writing file");
       }
+      return;
     }
 
-    //now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
-    String token;
-
-    token = sc.next();
-    if (!token.equals("P3")) {
-      throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
-    }
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    System.out.println("Height of image: " + height);
-    Pixel[][] pixelArray = new Pixel[height][width];
-    int maxValue = sc.nextInt();
-    System.out.println("Maximum value of a color in this file (usually 255): " + maxValue);
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        Pixel pixel = new Pixel(r, g, b);
-        pixelArray[i][j] = pixel;
+    int[] row = new int[width];
+    byte[] bytes = new byte[width * depth];
+    ByteBuffer rowBuffer = ByteBuffer.wrap(bytes);
+
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)) {
+      out.write(head);
+      for (int i = 0; i < height; i++) {
+        image.getRGB(i, 0, 1, width, row, 0, width);
+        PnmRaster.encodeRow(row, width, depth, rowBuffer, 0);
+        out.write(bytes);
       }
+    } catch (IOException e) {
+      throw new IOException("Error writing file");
     }
-    return new Image(pixelArray);
   }
 
   /**
    * Exports all the layers of the model in a custom folder as PPMs with a text file that details
-   * the order of the layers.
+   * the order of the layers. The layers are written as binary PPMs.
    *
    * @param model the model where the layers reside
    * @throws IOException if there is an error writing the data
    */
   public static void exportAllLayers(String path, ILayerModel model) throws IOException {
+    exportAllLayers(path, model, PnmFormat.PPM);
+  }
+
+  /**
+   * Exports all the layers of the model in a custom folder in the given netpbm format, with a text
+   * file that details the order of the layers. Up to getParallelism() layers are written at the
+   * same time, and the current layer of the model is not changed.
+   *
+   * @param path   the folder where the new folder of the layers is made
+   * @param model  the model where the layers reside
+   * @param format the format the layers are written in
+   * @throws IOException if there is an error writing the data
+   */
+  public static void exportAllLayers(String path, ILayerModel model, PnmFormat format)
+      throws IOException {
+    exportAllLayers(path, model, format, new SaveRecord());
+  }
+
+  /**
+   * Exports all the layers of the model in a custom folder like exportAllLayers, but only writes
+   * the layers that have changed since the save described by the record. The file of each
+   * unchanged layer is hard-linked from that save into the new folder, or copied where the file
+   * system does not support links, so the new folder is complete on its own. The record is then
+   * updated to describe this save.
+   *
+   * @param path   the folder where the new folder of the layers is made
+   * @param model  the model where the layers reside
+   * @param format the format the layers are written in
+   * @param record what the last save of the model wrote, which is updated
+   * @throws IOException if there is an error writing the data
+   */
+  public static void exportAllLayers(String path, ILayerModel model, PnmFormat format,
+      SaveRecord record) throws IOException {
     int numOfLayers = model.numPhoto();
     String result = "";
 
@@ -227,12 +442,25 @@ public class FileActions {
     folder.mkdir();
     System.out.println("Folder created at " + path + ".");
 
+    // the layers are written at the same time; the order only matters in output.txt
+    List<LayerTask<SaveRecord.Entry>> tasks = new ArrayList<>();
     for (int i = 0; i < numOfLayers; i++) {
-      result += model.getName(i) + '\n';
-      model.setCurrentFromIndex(i);
-      String fileName = path + "/" + folderName + "/" + model.getName(i) + ".ppm";
-      toPPM(fileName, model);
+      String name = model.getName(i);
+      result += name + '\n';
+      ILayer layer = model.getLayer(i);
+      long revision = layer.getRevision();
+      Path file = Paths.get(path + "/" + folderName + "/" + name + format.getExtension());
+      Path previous = record.reusable(name, revision, format);
+      tasks.add(() -> {
+        if (previous == null || !reuse(previous, file)) {
+          // never write through a link to the file of an older save
+          Files.deleteIfExists(file);
+          writePNM(file.toString(), layer, format);
+        }
+        return new SaveRecord.Entry(name, revision, file);
+      });
     }
+    record.replace(format, runAll(tasks));
 
     Path textPath = Paths.get(path + "/" + folderName + "/output.txt");
     Files.writeString(textPath, result, StandardCharsets.UTF_8);
@@ -240,7 +468,34 @@ public class FileActions {
   }
 
   /**
-   * Imports multiple layers from a text file.
+   * Makes the file of a layer from an earlier save appear at a new path, as a hard link, or as a
+   * copy if the link can not be made.
+   *
+   * @param previous the file of the earlier save
+   * @param file     where the layer is saved now
+   * @return false if neither a link nor a copy could be made
+   */
+  private static boolean reuse(Path previous, Path file) {
+    try {
+      if (Files.exists(file) && Files.isSameFile(previous, file)) {
+        return true;
+      }
+      Files.deleteIfExists(file);
+      try {
+        Files.createLink(file, previous);
+      } catch (IOException | UnsupportedOperationException e) {
+        Files.copy(previous, file, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Imports multiple layers from a text file. Up to getParallelism() layer files are read at the
+   * same time; the layers are only added to the model, in order, once every file has been read, so
+   * a file that can not be read leaves the model as it was.
    *
    * @param path  path of file
    * @param model model
@@ -261,13 +516,302 @@ public class FileActions {
 
     input.close();
 
-    for (int i = in.size() - 1; i >= 0; i--) {
-      String fileName = path + "/" + in.get(i) + ".ppm";
-      ImageRep img = readPPM(fileName);
-      model.addLayer(in.get(i));
-      model.upload(img);
-      System.out.println("Layer " + in.get(i) + " has been uploaded.");
+    // the files are read at the same time, and then added to the model in order
+    List<LayerTask<ImageRep>> tasks = new ArrayList<>();
+    for (String name : in) {
+      tasks.add(() -> readPNM(layerFile(path, name)));
+    }
+    List<ImageRep> images = runAll(tasks);
+
+    try {
+      for (int i = in.size() - 1; i >= 0; i--) {
+        model.addLayer(in.get(i));
+        model.upload(images.get(i));
+        System.out.println("Layer " + in.get(i) + " has been uploaded.");
+      }
+    } finally {
+      // the images that did not make it into a layer are freed, the others are held by their layer
+      discard(images);
+    }
+  }
+
+  /**
+   * Writes every layer of the model, with its name, visibility and order, into one project file.
+   * Each layer is compressed separately and listed in an index at the start of the file, so it can
+   * be read back on its own with readArchiveLayer.
+   *
+   * @param fileName the name of the file, which must end in ".layers"
+   * @param model    the model where the layers reside
+   * @throws IOException              if there is an error writing the file
+   * @throws IllegalArgumentException if the name does not end in ".layers"
+   */
+  public static void exportArchive(String fileName, ILayerModel model) throws IOException,
+      IllegalArgumentException {
+    ProjectArchive.write(fileName, model);
+  }
+
+  /**
+   * Imports every layer of a project file into the model, in the order and with the visibility
+   * they were saved with. Up to getParallelism() layers are read at the same time, and the layers
+   * are only added to the model once all of them have been read.
+   *
+   * @param fileName the name of the project file
+   * @param model    the model the layers are added to
+   * @throws IOException              if there is an error reading the file
+   * @throws IllegalArgumentException if the file is not a valid project file, or a layer name is
+   *                                  already taken
+   */
+  public static void importArchive(String fileName, ILayerModel model) throws IOException,
+      IllegalArgumentException {
+    List<ProjectArchive.Entry> entries = ProjectArchive.readIndex(fileName);
+    List<LayerTask<ImageRep>> tasks = new ArrayList<>();
+    for (ProjectArchive.Entry entry : entries) {
+      tasks.add(() -> ProjectArchive.readLayer(fileName, entry));
+    }
+    List<ImageRep> images = runAll(tasks);
+
+    try {
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        ProjectArchive.Entry entry = entries.get(i);
+        model.addLayer(entry.name);
+        model.upload(images.get(i));
+        if (!entry.visible && entry.height > 0 && entry.width > 0) {
+          model.toggleVisible();
+        }
+      }
+    } finally {
+      discard(images);
+    }
+  }
+
+  /**
+   * Reads the image of one layer of a project file, without reading the other layers.
+   *
+   * @param fileName the name of the project file
+   * @param name     the name of the layer
+   * @return the image of the layer
+   * @throws IOException              if there is an error reading the file
+   * @throws IllegalArgumentException if the file is not a valid project file, or it has no layer
+   *                                  with the given name
+   */
+  public static ImageRep readArchiveLayer(String fileName, String name) throws IOException,
+      IllegalArgumentException {
+    for (ProjectArchive.Entry entry : ProjectArchive.readIndex(fileName)) {
+      if (entry.name.equals(name)) {
+        return ProjectArchive.readLayer(fileName, entry);
+      }
+    }
+    throw new IllegalArgumentException("There is no layer named " + name);
+  }
+
+  /**
+   * Runs the tasks on at most getParallelism() threads and gives their results in the order of the
+   * tasks. If tasks fail, the failure of the first of them in that order is thrown as it is, once
+   * the tasks that have not started yet are cancelled, the ones that are running have stopped, and
+   * every image the other tasks gave has been freed.
+   *
+   * @param tasks the tasks
+   * @param <T>   what the tasks give back
+   * @return the results of the tasks, in order
+   * @throws IOException if a task could not read or write its file
+   */
+  static <T> List<T> runAll(List<LayerTask<T>> tasks) throws IOException {
+    List<T> results = new ArrayList<>();
+    int threads = Math.min(getParallelism(), tasks.size());
+    if (threads <= 1) {
+      boolean done = false;
+      try {
+        for (LayerTask<T> task : tasks) {
+          results.add(task.run());
+        }
+        done = true;
+        return results;
+      } finally {
+        if (!done) {
+          discard(results);
+        }
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<T>> futures = new ArrayList<>();
+    boolean done = false;
+    try {
+      for (LayerTask<T> task : tasks) {
+        futures.add(executor.submit(task::run));
+      }
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      done = true;
+      return results;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading or writing the layers");
+    } finally {
+      executor.shutdownNow();
+      awaitTermination(executor);
+      if (!done) {
+        for (Future<T> future : futures) {
+          discard(completed(future));
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until every task of the executor has stopped, even if the thread is interrupted in the
+   * meantime, in which case it is interrupted again afterwards.
+   *
+   * @param executor the executor, which has been shut down
+   */
+  private static void awaitTermination(ExecutorService executor) {
+    boolean interrupted = false;
+    while (!executor.isTerminated()) {
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gives what a finished task gave back, as a list that is empty if the task failed or was
+   * cancelled.
+   *
+   * @param future the task, which is done
+   * @param <T>    what the task gives back
+   * @return the result of the task, if any
+   */
+  private static <T> List<T> completed(Future<T> future) {
+    List<T> result = new ArrayList<>();
+    if (future.isDone() && !future.isCancelled()) {
+      try {
+        result.add(future.get());
+      } catch (ExecutionException | InterruptedException e) {
+        // the task gave nothing back, so there is nothing to free
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Frees the images among the given results that are kept outside of the heap and that no layer
+   * holds. Other results are left to the garbage collector.
+   *
+   * @param results the results
+   */
+  private static void discard(List<?> results) {
+    for (Object result : results) {
+      if (result instanceof ManagedImage) {
+        ((ManagedImage) result).discard();
+      }
+    }
+  }
+
+  /**
+   * Gives the image of the current layer of the model.
+   *
+   * @param model the model
+   * @return the image of the current layer
+   * @throws IllegalStateException if there is no current layer
+   */
+  private static ImageRep currentImage(ILayerModel model) throws IllegalStateException {
+    String name = model.getCurrName();
+    for (int i = 0; name != null && i < model.numPhoto(); i++) {
+      if (model.getName(i).equals(name)) {
+        return model.getLayer(i).getImage();
+      }
+    }
+    throw new IllegalStateException("There is no image in the model");
+  }
+
+  /**
+   * Writes a color value and a line break as text into the buffer.
+   *
+   * @param buffer the buffer, which must have room for four more bytes
+   * @param length how many bytes of the buffer are in use
+   * @param value  the value, between 0 and 255
+   * @return how many bytes of the buffer are in use after the value
+   */
+  private static int appendValue(byte[] buffer, int length, int value) {
+    if (value >= 100) {
+      buffer[length++] = (byte) ('0' + value / 100);
+    }
+    if (value >= 10) {
+      buffer[length++] = (byte) ('0' + value / 10 % 10);
+    }
+    buffer[length++] = (byte) ('0' + value % 10);
+    buffer[length++] = '\n';
+    return length;
+  }
+
+  /**
+   * Finds the file of a layer that was exported by exportAllLayers, in whichever netpbm format it
+   * was written.
+   *
+   * @param path the folder of the layers
+   * @param name the name of the layer
+   * @return the path of the file of the layer, which is the PPM file if none exists
+   */
+  private static String layerFile(String path, String name) {
+    for (PnmFormat format : PnmFormat.values()) {
+      String fileName = path + "/" + name + format.getExtension();
+      if (new File(fileName).isFile()) {
+        return fileName;
+      }
+    }
+    return path + "/" + name + PnmFormat.PPM.getExtension();
+  }
+
+  /**
+   * Reads the header of a PAM file, which is a line per field up to the ENDHDR line.
+   *
+   * @param sc the scanner, just after the magic number
+   * @return the width, height, depth and maximum value of the file
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the header is not valid
+   */
+  private static int[] readPamHeader(PnmScanner sc) throws IOException,
+      IllegalArgumentException {
+    int[] header = {-1, -1, -1, -1};
+    String[] keys = {"WIDTH", "HEIGHT", "DEPTH", "MAXVAL"};
+    String line = sc.nextLine();
+    while (line != null && !line.equals("ENDHDR")) {
+      String[] parts = line.split("\\s+");
+      for (int k = 0; k < keys.length; k++) {
+        if (parts.length == 2 && parts[0].equals(keys[k])) {
+          try {
+            header[k] = Integer.parseInt(parts[1]);
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid PAM file: " + line);
+          }
+        }
+      }
+      line = sc.nextLine();
+    }
+
+    if (line == null) {
+      throw new IllegalArgumentException("Invalid PAM file: the header has no ENDHDR");
+    }
+    if (header[0] < 0 || header[1] < 0 || header[2] < 1 || header[2] > 4) {
+      throw new IllegalArgumentException("Invalid PAM file: the header is missing a field");
     }
+    return header;
   }
 
   /**
@@ -290,16 +834,7 @@ public class FileActions {
       return bufferedImageEmpty;
     } else {
 
-      BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          Color color = new Color(model.topVisible().getPixelAt(i, j).getRed(),
-              topVisible.getPixelAt(i, j).getGreen(),
-              topVisible.getPixelAt(i, j).getBlue());
-          bufferedImage.setRGB(j, i, color.getRGB());
-        }
-      }
+      BufferedImage bufferedImage = RasterBridge.toBufferedImage(topVisible);
       return bufferedImage;
     }
   }
@@ -0,0 +1,56 @@
+package controller;
+
+/**
+ * This represents the netpbm formats that images can be written in. Reading does not need it, since
+ * the format of a file is told by its first bytes.
+ */
+public enum PnmFormat {
+
+  /**
+   * The plain (ASCII) color format, P3, with every value written as text.
+   */
+  PLAIN_PPM("P3", ".ppm"),
+
+  /**
+   * The binary color format, P6, with one byte per channel. It is about a third of the size of a
+   * plain file and much faster to read and write.
+   */
+  PPM("P6", ".ppm"),
+
+  /**
+   * The binary greyscale format, P5, with one byte per pixel. Colors are turned into grey with the
+   * same weights as the greyscale filter.
+   */
+  PGM("P5", ".pgm"),
+
+  /**
+   * The portable arbitrary map format, P7, written with the RGB tuple type.
+   */
+  PAM("P7", ".pam");
+
+  private final String magic;
+  private final String extension;
+
+  PnmFormat(String magic, String extension) {
+    this.magic = magic;
+    this.extension = extension;
+  }
+
+  /**
+   * Gives the two characters a file of this format begins with.
+   *
+   * @return the magic number of the format, ie. P6
+   */
+  public String getMagic() {
+    return magic;
+  }
+
+  /**
+   * Gives the extension that files of this format end in.
+   *
+   * @return the extension, with its leading dot
+   */
+  public String getExtension() {
+    return extension;
+  }
+}
@@ -0,0 +1,205 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import model.ImageBuffer;
+import model.ImageRep;
+import model.PackedImage;
+
+/**
+ * This class turns the samples of a binary netpbm file into packed pixels and back, one row at a
+ * time. Rows are read from and written to any byte buffer, so the same code decodes a row that was
+ * streamed into a small array and a row that lies in a memory-mapped region of the file.
+ *
+ * <p>Files larger than MAP_THRESHOLD are memory-mapped: the pixels are decoded straight from the
+ * mapped pages, and written straight into them, with no heap copy of the file. A mapping can not be
+ * larger than 2GB, so large files are mapped a chunk of whole rows at a time.
+ */
+final class PnmRaster {
+
+  /**
+   * The size of raster, in bytes, from which a file is memory-mapped instead of streamed.
+   */
+  static final long MAP_THRESHOLD = 1 << 24;
+
+  /**
+   * The largest region that is mapped at once.
+   */
+  private static final long MAX_CHUNK = 1 << 28;
+
+  private PnmRaster() {
+  }
+
+  /**
+   * Reads the raster of a binary netpbm file by memory-mapping it.
+   *
+   * @param channel  the channel of the file
+   * @param offset   the position in the file where the raster starts
+   * @param height   the height of the image
+   * @param width    the width of the image
+   * @param depth    the number of samples per pixel
+   * @param maxValue the value of a full sample
+   * @return the image
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the file is too short for the raster
+   */
+  static ImageRep readMapped(FileChannel channel, long offset, int height, int width, int depth,
+      int maxValue) throws IOException, IllegalArgumentException {
+    long rowLength = rowLength(width, depth, maxValue);
+    if (channel.size() - offset < rowLength * height) {
+      throw new IllegalArgumentException("Invalid PPM file: the file ended too early");
+    }
+
+    ImageBuffer image = ImageBuffer.forSize(height, width);
+    int[] row = new int[width];
+    int rowsPerChunk = (int) Math.max(1, Math.min(height, MAX_CHUNK / Math.max(1, rowLength)));
+    for (int first = 0; first < height; first += rowsPerChunk) {
+      int rows = Math.min(rowsPerChunk, height - first);
+      MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+          offset + first * rowLength, rows * rowLength);
+      for (int i = 0; i < rows; i++) {
+        decodeRow(region, (int) (i * rowLength), row, width, depth, maxValue);
+        image.setRGB(first + i, 0, 1, width, row, 0, width);
+      }
+    }
+    return image.toImage();
+  }
+
+  /**
+   * Writes an image into a file as binary samples by memory-mapping the region
+   * of the file after its header. The file is made exactly as large as the header and the raster.
+   *
+   * @param channel the channel of the file, open for reading and writing
+   * @param header  the header of the file
+   * @param image   the image to be written
+   * @param depth   1 to write grey samples, 3 to write red, green and blue samples
+   * @throws IOException if the file can not be written
+   */
+  static void writeMapped(FileChannel channel, byte[] header, ImageRep image, int depth)
+      throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    long rowLength = (long) width * depth;
+
+    channel.truncate(0);
+    channel.write(ByteBuffer.wrap(header), 0);
+    int[] row = new int[width];
+    int rowsPerChunk = (int) Math.max(1, Math.min(height, MAX_CHUNK / Math.max(1, rowLength)));
+    for (int first = 0; first < height; first += rowsPerChunk) {
+      int rows = Math.min(rowsPerChunk, height - first);
+      MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE,
+          header.length + first * rowLength, rows * rowLength);
+      for (int i = 0; i < rows; i++) {
+        image.getRGB(first + i, 0, 1, width, row, 0, width);
+        encodeRow(row, width, depth, region, (int) (i * rowLength));
+      }
+    }
+  }
+
+  /**
+   * Gives the number of bytes of one row of a binary netpbm file.
+   *
+   * @param width    the width of the image
+   * @param depth    the number of samples per pixel
+   * @param maxValue the value of a full sample
+   * @return the length of a row in bytes
+   */
+  static long rowLength(int width, int depth, int maxValue) {
+    return (long) width * depth * (maxValue < 256 ? 1 : 2);
+  }
+
+  /**
+   * Decodes one row of binary samples into packed pixels. Grey pixels become equal red, green and
+   * blue values, alpha is dropped, and samples are scaled to 8 bits.
+   *
+   * @param src      the buffer that holds the row
+   * @param start    the index of the row in the buffer
+   * @param row      where the packed pixels are written
+   * @param width    the width of the image
+   * @param depth    how many samples a pixel has: grey, grey and alpha, RGB, or RGB and alpha
+   * @param maxValue the value of a full sample
+   * @throws IllegalArgumentException if a sample is larger than the maximum value
+   */
+  static void decodeRow(ByteBuffer src, int start, int[] row, int width, int depth,
+      int maxValue) throws IllegalArgumentException {
+    int sampleBytes = maxValue < 256 ? 1 : 2;
+    int index = start;
+    for (int j = 0; j < width; j++) {
+      int r = sample(src, index, sampleBytes, maxValue);
+      if (depth < 3) {
+        row[j] = PackedImage.pack(r, r, r);
+      } else {
+        int g = sample(src, index + sampleBytes, sampleBytes, maxValue);
+        int b = sample(src, index + 2 * sampleBytes, sampleBytes, maxValue);
+        row[j] = PackedImage.pack(r, g, b);
+      }
+      if (depth == 2 || depth == 4) {
+        sample(src, index + (depth - 1) * sampleBytes, sampleBytes, maxValue);
+      }
+      index += depth * sampleBytes;
+    }
+  }
+
+  /**
+   * Encodes one row of packed pixels as 8-bit samples. Grey samples use the same weights as the
+   * greyscale filter.
+   *
+   * @param row   the packed pixels
+   * @param width the width of the image
+   * @param depth 1 to write grey samples, 3 to write red, green and blue samples
+   * @param dest  the buffer the row is written into
+   * @param start the index of the row in the buffer
+   */
+  static void encodeRow(int[] row, int width, int depth, ByteBuffer dest, int start) {
+    for (int j = 0; j < width; j++) {
+      int r = (row[j] >> 16) & 0xFF;
+      int g = (row[j] >> 8) & 0xFF;
+      int b = row[j] & 0xFF;
+      if (depth == 1) {
+        dest.put(start + j, (byte) Math.round(0.2126 * r + 0.7152 * g + 0.0722 * b));
+      } else {
+        dest.put(start + j * 3, (byte) r);
+        dest.put(start + j * 3 + 1, (byte) g);
+        dest.put(start + j * 3 + 2, (byte) b);
+      }
+    }
+  }
+
+  /**
+   * Turns a sample into a value between 0 and 255.
+   *
+   * @param value    the sample
+   * @param maxValue the value of a full sample
+   * @return the value between 0 and 255
+   * @throws IllegalArgumentException if the sample is larger than the maximum value
+   */
+  static int scale(int value, int maxValue) throws IllegalArgumentException {
+    if (value > maxValue) {
+      throw new IllegalArgumentException(
+          "Color values need to be between 0 and " + maxValue + ".");
+    }
+    if (maxValue == 255) {
+      return value;
+    }
+    return (value * 255 + maxValue / 2) / maxValue;
+  }
+
+  /**
+   * Reads one sample of a row and scales it to 8 bits.
+   *
+   * @param src         the buffer that holds the row
+   * @param index       the index of the sample in the buffer
+   * @param sampleBytes 1 for 8-bit samples, 2 for 16-bit samples (most significant byte first)
+   * @param maxValue    the value of a full sample
+   * @return the value between 0 and 255
+   * @throws IllegalArgumentException if the sample is larger than the maximum value
+   */
+  private static int sample(ByteBuffer src, int index, int sampleBytes, int maxValue)
+      throws IllegalArgumentException {
+    int value = sampleBytes == 1 ? src.get(index) & 0xFF
+        : ((src.get(index) & 0xFF) << 8) | (src.get(index + 1) & 0xFF);
+    return scale(value, maxValue);
+  }
+}
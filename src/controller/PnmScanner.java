@@ -0,0 +1,222 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This class reads the tokens of a PPM file (and the other netpbm formats) straight from the bytes
+ * of a channel. The bytes are read in large blocks into one reusable buffer, numbers are parsed as
+ * they are read, and comments are skipped wherever they appear, so nothing but the buffer is kept
+ * in memory no matter how large the file is.
+ */
+final class PnmScanner implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private boolean ended;
+  private long filled;
+
+  /**
+   * Creates a scanner that reads from the given channel. The scanner closes the channel when it is
+   * closed.
+   *
+   * @param channel the channel the file is read from
+   */
+  PnmScanner(ReadableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    this.buffer.limit(0);
+  }
+
+  /**
+   * Reads the next byte of the file.
+   *
+   * @return the byte as a value between 0 and 255, or -1 at the end of the file
+   * @throws IOException if the file can not be read
+   */
+  int read() throws IOException {
+    if (!buffer.hasRemaining() && !fill()) {
+      return -1;
+    }
+    return buffer.get() & 0xFF;
+  }
+
+  /**
+   * Reads the next token, which is a run of bytes up to the next whitespace or comment.
+   *
+   * @return the token
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the file ends before the token
+   */
+  String nextToken() throws IOException, IllegalArgumentException {
+    int value = skipSpace();
+    StringBuilder token = new StringBuilder();
+    while (value != -1 && !isSpace(value) && value != '#') {
+      token.append((char) value);
+      value = read();
+    }
+    unread(value);
+    return token.toString();
+  }
+
+  /**
+   * Reads the next non-negative decimal number. A single whitespace byte right after the number is
+   * read as well, which is where the binary data of a binary netpbm file starts.
+   *
+   * @return the number
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the next token is not a number, or the file ends before it
+   */
+  int nextInt() throws IOException, IllegalArgumentException {
+    int value = skipSpace();
+    if (value < '0' || value > '9') {
+      throw new IllegalArgumentException("Invalid PPM file: expected a number");
+    }
+
+    int number = 0;
+    while (value >= '0' && value <= '9') {
+      if (number > 100_000_000) {
+        throw new IllegalArgumentException("Invalid PPM file: the number is too large");
+      }
+      number = number * 10 + (value - '0');
+      value = read();
+    }
+
+    if (value != -1 && !isSpace(value)) {
+      if (value != '#') {
+        throw new IllegalArgumentException("Invalid PPM file: expected a number");
+      }
+      unread(value);
+    }
+    return number;
+  }
+
+  /**
+   * Reads the given number of bytes, which is how the samples of a binary netpbm file are read.
+   *
+   * @param dest   the array the bytes are copied into
+   * @param offset the index in the array of the first byte
+   * @param length how many bytes are read
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the file ends first
+   */
+  void readFully(byte[] dest, int offset, int length) throws IOException,
+      IllegalArgumentException {
+    while (length > 0) {
+      if (!buffer.hasRemaining() && !fill()) {
+        throw new IllegalArgumentException("Invalid PPM file: the file ended too early");
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(dest, offset, count);
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * Reads the rest of the current line, as used by the header of a PAM file.
+   *
+   * @return the line, without the line break, or null at the end of the file
+   * @throws IOException if the file can not be read
+   */
+  String nextLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int value = read();
+    if (value == -1) {
+      return null;
+    }
+    while (value != -1 && value != '\n') {
+      line.append((char) value);
+      value = read();
+    }
+    return line.toString().trim();
+  }
+
+  /**
+   * Gives how many bytes of the file have been read so far, which is where the binary data starts
+   * once the header has been read.
+   *
+   * @return the position in the file of the next byte
+   */
+  long position() {
+    return filled - buffer.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Skips whitespace and comments, which run from a '#' to the end of the line.
+   *
+   * @return the first byte after them
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the file ends first
+   */
+  private int skipSpace() throws IOException, IllegalArgumentException {
+    int value = read();
+    while (value != -1) {
+      if (value == '#') {
+        while (value != -1 && value != '\n' && value != '\r') {
+          value = read();
+        }
+      } else if (!isSpace(value)) {
+        return value;
+      } else {
+        value = read();
+      }
+    }
+    throw new IllegalArgumentException("Invalid PPM file: the file ended too early");
+  }
+
+  /**
+   * Puts back the byte that was just read, so it is read again.
+   *
+   * @param value the byte, or -1 for the end of the file, which is not put back
+   */
+  private void unread(int value) {
+    if (value != -1) {
+      buffer.position(buffer.position() - 1);
+    }
+  }
+
+  /**
+   * Reads the next block of the file into the buffer.
+   *
+   * @return false if the end of the file was reached
+   * @throws IOException if the file can not be read
+   */
+  private boolean fill() throws IOException {
+    if (ended) {
+      return false;
+    }
+    buffer.clear();
+    int count = 0;
+    while (count == 0) {
+      count = channel.read(buffer);
+    }
+    buffer.flip();
+    if (count < 0) {
+      ended = true;
+      return false;
+    }
+    filled += count;
+    return true;
+  }
+
+  /**
+   * Tells whether a byte is whitespace in a netpbm header.
+   *
+   * @param value the byte
+   * @return true if it is whitespace
+   */
+  private static boolean isSpace(int value) {
+    return value == ' ' || value == '\n' || value == '\r' || value == '\t' || value == '\f'
+        || value == 0x0B;
+  }
+}
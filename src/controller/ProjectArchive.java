@@ -0,0 +1,359 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import model.ILayer;
+import model.ILayerModel;
+import model.ImageBuffer;
+import model.ImageRep;
+import model.PackedImage;
+
+/**
+ * This class reads and writes every layer of a model as one project file. The file begins with an
+ * index that lists, for each layer in the order of the model, its name, whether it is visible, its
+ * size, and where its pixels are in the file. The pixels of each layer follow as a separate
+ * compressed block, so one layer can be read by seeking straight to its block.
+ *
+ * <p>A block holds the red, green and blue bytes of the pixels row after row, compressed with
+ * Deflate. Before compression each byte is replaced by its difference from the same channel of
+ * the pixel to its left, which makes smooth images compress much better.
+ */
+final class ProjectArchive {
+
+  /**
+   * The extension of project files.
+   */
+  static final String EXTENSION = ".layers";
+
+  private static final int MAGIC = 0x50454c31;
+
+  /**
+   * This represents the entry of one layer in the index of a project file.
+   */
+  static final class Entry {
+    final String name;
+    final boolean visible;
+    final int height;
+    final int width;
+    long offset;
+    long length;
+
+    /**
+     * Creates the entry of a layer.
+     *
+     * @param name    the name of the layer
+     * @param visible whether the layer is visible
+     * @param height  the height of the image of the layer
+     * @param width   the width of the image of the layer
+     */
+    Entry(String name, boolean visible, int height, int width) {
+      this.name = name;
+      this.visible = visible;
+      this.height = height;
+      this.width = width;
+    }
+  }
+
+  private ProjectArchive() {
+  }
+
+  /**
+   * Writes every layer of the model to a project file. Up to FileActions.getParallelism() layers
+   * are compressed at the same time, and their blocks are written in order as they are done. The
+   * file is written under a temporary name in the same folder and only moved over the given one
+   * once it is complete, so a failure leaves a previous file of that name as it was.
+   *
+   * @param fileName the name of the file
+   * @param model    the model whose layers are written
+   * @throws IOException              if the file can not be written
+   * @throws IllegalArgumentException if the name does not end in the project extension
+   */
+  static void write(String fileName, ILayerModel model) throws IOException,
+      IllegalArgumentException {
+    if (!fileName.endsWith(EXTENSION)) {
+      throw new IllegalArgumentException("The name must end in " + EXTENSION);
+    }
+
+    int count = model.numPhoto();
+    List<ILayer> layers = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ILayer layer = model.getLayer(i);
+      layers.add(layer);
+      entries.add(new Entry(layer.getName(), layer.isVisible(), layer.getHeight(),
+          layer.getWidth()));
+    }
+
+    Path target = Paths.get(fileName).toAbsolutePath();
+    Path temporary = target.resolveSibling(target.getFileName() + ".part");
+    boolean done = false;
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writeLayers(channel, layers, entries);
+      }
+      try {
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  /**
+   * Writes the index and the blocks of the layers to a new project file.
+   *
+   * @param channel the channel of the file
+   * @param layers  the layers, in the order of the model
+   * @param entries the entries of the layers, whose offsets and lengths are filled in
+   * @throws IOException if the file can not be written
+   */
+  private static void writeLayers(FileChannel channel, List<ILayer> layers, List<Entry> entries)
+      throws IOException {
+    int count = layers.size();
+    long position = indexBytes(entries).length;
+    int window = FileActions.getParallelism();
+    for (int first = 0; first < count; first += window) {
+      List<FileActions.LayerTask<byte[]>> tasks = new ArrayList<>();
+      for (int i = first; i < Math.min(count, first + window); i++) {
+        ILayer layer = layers.get(i);
+        tasks.add(() -> compress(layer.getImage()));
+      }
+      List<byte[]> blocks = FileActions.runAll(tasks);
+      for (int i = 0; i < blocks.size(); i++) {
+        Entry entry = entries.get(first + i);
+        entry.offset = position;
+        entry.length = blocks.get(i).length;
+        writeFully(channel, ByteBuffer.wrap(blocks.get(i)), position);
+        position += entry.length;
+      }
+    }
+    writeFully(channel, ByteBuffer.wrap(indexBytes(entries)), 0);
+  }
+
+  /**
+   * Reads the index of a project file.
+   *
+   * @param fileName the name of the file
+   * @return the entries of the layers, in the order of the model
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the file is not a project file
+   */
+  static List<Entry> readIndex(String fileName) throws IOException, IllegalArgumentException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      if (in.readInt() != MAGIC) {
+        throw new IllegalArgumentException("Invalid project file: wrong header");
+      }
+      int count = in.readInt();
+      if (count < 0) {
+        throw new IllegalArgumentException("Invalid project file: wrong number of layers");
+      }
+
+      List<Entry> entries = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        Entry entry = new Entry(in.readUTF(), in.readBoolean(), in.readInt(), in.readInt());
+        entry.offset = in.readLong();
+        entry.length = in.readLong();
+        if (entry.height < 0 || entry.width < 0 || entry.offset < 0 || entry.length < 0
+            || entry.offset + entry.length > channel.size()) {
+          throw new IllegalArgumentException("Invalid project file: wrong layer " + entry.name);
+        }
+        entries.add(entry);
+      }
+      return entries;
+    } catch (EOFException e) {
+      throw new IllegalArgumentException("Invalid project file: the index ended too early");
+    }
+  }
+
+  /**
+   * Reads the image of one layer of a project file. Only the block of that layer is read.
+   *
+   * @param fileName the name of the file
+   * @param entry    the entry of the layer, from the index of the file
+   * @return the image of the layer
+   * @throws IOException              if the file can not be read
+   * @throws IllegalArgumentException if the block of the layer is not valid
+   */
+  static ImageRep readLayer(String fileName, Entry entry) throws IOException,
+      IllegalArgumentException {
+    int width = entry.width;
+    ImageBuffer image = ImageBuffer.forSize(entry.height, width);
+    int[] pixels = new int[width];
+    byte[] row = new byte[width * 3];
+
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      channel.position(entry.offset);
+      InputStream block = new BufferedInputStream(
+          new LimitedInputStream(Channels.newInputStream(channel), entry.length), 1 << 16);
+      try (DataInputStream in = new DataInputStream(new InflaterInputStream(block))) {
+        for (int i = 0; i < entry.height; i++) {
+          in.readFully(row);
+          int r = 0;
+          int g = 0;
+          int b = 0;
+          for (int j = 0; j < width; j++) {
+            r = (r + row[j * 3]) & 0xFF;
+            g = (g + row[j * 3 + 1]) & 0xFF;
+            b = (b + row[j * 3 + 2]) & 0xFF;
+            pixels[j] = PackedImage.pack(r, g, b);
+          }
+          image.setRGB(i, 0, 1, width, pixels, 0, width);
+        }
+      }
+    } catch (EOFException | ZipException e) {
+      throw new IllegalArgumentException("Invalid project file: layer " + entry.name
+          + " is damaged");
+    }
+    return image.toImage();
+  }
+
+  /**
+   * Compresses the pixels of an image into the block of a layer.
+   *
+   * @param image the image
+   * @return the compressed block
+   * @throws IOException if the block can not be written
+   */
+  private static byte[] compress(ImageRep image) throws IOException {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int[] pixels = new int[width];
+    byte[] row = new byte[width * 3];
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, 1 << 16)) {
+      for (int i = 0; i < height; i++) {
+        image.getRGB(i, 0, 1, width, pixels, 0, width);
+        int previous = 0;
+        for (int j = 0; j < width; j++) {
+          int pixel = pixels[j];
+          row[j * 3] = (byte) ((pixel >> 16) - (previous >> 16));
+          row[j * 3 + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+          row[j * 3 + 2] = (byte) (pixel - previous);
+          previous = pixel;
+        }
+        out.write(row);
+      }
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encodes the index of a project file.
+   *
+   * @param entries the entries of the layers
+   * @return the bytes of the index
+   * @throws IOException if the index can not be encoded
+   */
+  private static byte[] indexBytes(List<Entry> entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(entries.size());
+    for (Entry entry : entries) {
+      out.writeUTF(entry.name);
+      out.writeBoolean(entry.visible);
+      out.writeInt(entry.height);
+      out.writeInt(entry.width);
+      out.writeLong(entry.offset);
+      out.writeLong(entry.length);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes all the bytes of a buffer to the channel at the given position.
+   *
+   * @param channel  the channel
+   * @param buffer   the bytes
+   * @param position the position in the file
+   * @throws IOException if the bytes can not be written
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * This represents a stream that ends after a given number of bytes of another stream, so that
+   * reading a block never reads into the next one.
+   */
+  private static final class LimitedInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+
+    /**
+     * Creates a stream over the next bytes of another stream.
+     *
+     * @param in        the stream
+     * @param remaining how many bytes can be read
+     */
+    LimitedInputStream(InputStream in, long remaining) {
+      this.in = in;
+      this.remaining = remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int value = in.read();
+      if (value >= 0) {
+        remaining--;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int count = in.read(b, off, (int) Math.min(len, remaining));
+      if (count > 0) {
+        remaining -= count;
+      }
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
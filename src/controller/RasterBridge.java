@@ -0,0 +1,122 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import model.ILayer;
+import model.ImageBuffer;
+import model.ImageRep;
+
+/**
+ * This class moves pixels between a BufferedImage and the images of the model in bulk. Instead of
+ * asking the BufferedImage for one pixel at a time, which goes through its color model for every
+ * pixel, it reads and writes the array behind the raster directly for the layouts ImageIO and the
+ * view use: TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR. Any other layout is
+ * copied a row at a time through getRGB, which gives the same pixels, only more slowly.
+ */
+final class RasterBridge {
+
+  private RasterBridge() {
+  }
+
+  /**
+   * Creates an image of the model that holds the pixels of the given BufferedImage. Alpha is
+   * dropped, since the images of the model are always opaque.
+   *
+   * @param input the BufferedImage
+   * @return the ImageRep with the same pixels
+   */
+  static ImageRep toImage(BufferedImage input) {
+    int height = input.getHeight();
+    int width = input.getWidth();
+    WritableRaster raster = input.getRaster();
+    SampleModel sampleModel = raster.getSampleModel();
+    DataBuffer dataBuffer = raster.getDataBuffer();
+    boolean untranslated = raster.getSampleModelTranslateX() == 0
+        && raster.getSampleModelTranslateY() == 0 && dataBuffer.getNumBanks() == 1;
+
+    switch (input.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+        if (untranslated && sampleModel instanceof SinglePixelPackedSampleModel) {
+          ImageBuffer buffer = ImageBuffer.forSize(height, width);
+          buffer.setRGB(0, 0, height, width, ((DataBufferInt) dataBuffer).getData(),
+              dataBuffer.getOffset(),
+              ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride());
+          return buffer.toImage();
+        }
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        if (untranslated && sampleModel instanceof ComponentSampleModel) {
+          ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+          int[] bands = components.getBandOffsets();
+          return fromBytes(height, width, ((DataBufferByte) dataBuffer).getData(),
+              dataBuffer.getOffset(), components.getScanlineStride(),
+              components.getPixelStride(), bands[0], bands[1], bands[2]);
+        }
+        break;
+      default:
+        break;
+    }
+
+    ImageBuffer buffer = ImageBuffer.forSize(height, width);
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      input.getRGB(0, i, width, 1, row, 0, width);
+      buffer.setRGB(i, 0, 1, width, row, 0, width);
+    }
+    return buffer.toImage();
+  }
+
+  /**
+   * Creates a TYPE_INT_RGB BufferedImage with the pixels of the given layer. The pixels are copied
+   * into the array behind the raster with a single call to getRGB.
+   *
+   * @param layer the layer
+   * @return the BufferedImage with the same pixels
+   */
+  static BufferedImage toBufferedImage(ILayer layer) {
+    int height = layer.getHeight();
+    int width = layer.getWidth();
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] data = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+    layer.getRGB(0, 0, height, width, data, 0, width);
+    return output;
+  }
+
+  /**
+   * Packs pixels whose channels are interleaved as bytes, the layout of a byte raster.
+   *
+   * @param height      the height of the image in pixels
+   * @param width       the width of the image in pixels
+   * @param data        the interleaved channel values
+   * @param offset      the index of the first byte of the first pixel in the data
+   * @param scan        the distance in bytes between the starts of two rows in the data
+   * @param pixelStride the distance in bytes between two pixels of a row
+   * @param redOffset   the position of the red value inside a pixel
+   * @param greenOffset the position of the green value inside a pixel
+   * @param blueOffset  the position of the blue value inside a pixel
+   * @return the ImageRep with the given pixels
+   */
+  private static ImageRep fromBytes(int height, int width, byte[] data, int offset, int scan,
+      int pixelStride, int redOffset, int greenOffset, int blueOffset) {
+    ImageBuffer buffer = ImageBuffer.forSize(height, width);
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      int src = offset + i * scan;
+      for (int j = 0; j < width; j++) {
+        int pos = src + j * pixelStride;
+        row[j] = ((data[pos + redOffset] & 0xFF) << 16)
+            | ((data[pos + greenOffset] & 0xFF) << 8) | (data[pos + blueOffset] & 0xFF);
+      }
+      buffer.setRGB(i, 0, 1, width, row, 0, width);
+    }
+    return buffer.toImage();
+  }
+}
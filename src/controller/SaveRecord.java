@@ -0,0 +1,96 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class remembers what the last save of a layered document wrote: for every layer, the
+ * revision it had, the file it was written to, and the size and modification time of that file.
+ * The next save uses it to find the layers that have not changed since, and reuses their files
+ * instead of writing them again. A file is only reused while its size and modification time are
+ * the same as when it was saved, so a file that was changed or removed on the disk is written
+ * again.
+ */
+public final class SaveRecord {
+
+  private PnmFormat format;
+  private final Map<String, Entry> layers = new HashMap<>();
+
+  /**
+   * This represents the file that one layer was saved to.
+   */
+  static final class Entry {
+    final String name;
+    final long revision;
+    final Path file;
+    final long size;
+    final long modified;
+
+    /**
+     * Records the file a layer was just saved to, along with its current size and modification
+     * time.
+     *
+     * @param name     the name of the layer
+     * @param revision the revision of the layer that was saved
+     * @param file     the file of the layer
+     * @throws IOException if the attributes of the file can not be read
+     */
+    Entry(String name, long revision, Path file) throws IOException {
+      this.name = name;
+      this.revision = revision;
+      this.file = file;
+      this.size = Files.size(file);
+      this.modified = Files.getLastModifiedTime(file).toMillis();
+    }
+  }
+
+  /**
+   * Creates a record of no save, so the first save that uses it writes every layer.
+   */
+  public SaveRecord() {
+    // nothing has been saved yet
+  }
+
+  /**
+   * Gives the file of the last save that holds the given layer, if the layer has not changed since
+   * then and the file is still as it was written.
+   *
+   * @param name     the name of the layer
+   * @param revision the current revision of the layer
+   * @param format   the format the layer is about to be saved in
+   * @return the file that can be reused, or null if the layer has to be written again
+   */
+  synchronized Path reusable(String name, long revision, PnmFormat format) {
+    Entry entry = layers.get(name);
+    if (entry == null || entry.revision != revision || format != this.format) {
+      return null;
+    }
+    try {
+      if (Files.size(entry.file) == entry.size
+          && Files.getLastModifiedTime(entry.file).toMillis() == entry.modified) {
+        return entry.file;
+      }
+    } catch (IOException e) {
+      // the file is gone or can not be read, so the layer is written again
+    }
+    return null;
+  }
+
+  /**
+   * Replaces the record with the files of a save that just finished.
+   *
+   * @param format  the format the layers were saved in
+   * @param entries the files of the layers
+   */
+  synchronized void replace(PnmFormat format, List<Entry> entries) {
+    this.format = format;
+    layers.clear();
+    for (Entry entry : entries) {
+      layers.put(entry.name, entry);
+    }
+  }
+}
@@ -2,6 +2,8 @@ package controller;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import model.ILayerModel;
 import model.ImageRep;
@@ -15,6 +17,8 @@ public class SwingController implements Features {
 
   private ILayerModel model;
   private ISwingView view;
+  private final DisplayBuffer display = new DisplayBuffer();
+  private final SaveRecord saves = new SaveRecord();
 
   /**
    * This creates a swing controller object. The model field of the class is the parameter provided
@@ -86,7 +90,11 @@ public class SwingController implements Features {
   @Override
   public void exportCurrentLayer(String name) throws IOException, IllegalArgumentException {
     if (name.endsWith(".ppm")) {
-      FileActions.toPPM(name, model);
+      FileActions.writePNM(name, model, PnmFormat.PPM);
+    } else if (name.endsWith(".pgm")) {
+      FileActions.writePNM(name, model, PnmFormat.PGM);
+    } else if (name.endsWith(".pam")) {
+      FileActions.writePNM(name, model, PnmFormat.PAM);
     } else if (name.endsWith(".png") || name.endsWith(".jpeg")) {
       FileActions.writeImage(model, name);
     } else {
@@ -98,14 +106,22 @@ public class SwingController implements Features {
 
   @Override
   public void exportAll(String path) throws IOException {
-    FileActions.exportAllLayers(path, model);
+    if (path.endsWith(ProjectArchive.EXTENSION)) {
+      FileActions.exportArchive(path, model);
+    } else {
+      FileActions.exportAllLayers(path, model, PnmFormat.PPM, saves);
+    }
 
     repaint();
   }
 
   @Override
   public void importAll(String path) throws IOException {
-    FileActions.importLayers(path, model);
+    if (path.endsWith(ProjectArchive.EXTENSION)) {
+      FileActions.importArchive(path, model);
+    } else {
+      FileActions.importLayers(path, model);
+    }
 
     repaint();
   }
@@ -114,12 +130,12 @@ public class SwingController implements Features {
   public void uploadImage(String path) throws IOException, IllegalArgumentException {
     ImageRep img;
 
-    if (path.endsWith(".ppm")) {
-      img = FileActions.readPPM(path);
+    if (path.endsWith(".ppm") || path.endsWith(".pgm") || path.endsWith(".pam")) {
+      img = FileActions.readPNM(path);
     } else if (path.endsWith(".png") || path.endsWith(".jpeg")) {
       img = FileActions.readImage(path);
     } else {
-      throw new IllegalArgumentException("Select file with png, jpeg, or ppm extension!");
+      throw new IllegalArgumentException("Select file with png, jpeg, ppm, pgm or pam extension!");
     }
     model.upload(img);
     System.out.println("Image at " + path + " has been uploaded.");
@@ -131,6 +147,15 @@ public class SwingController implements Features {
     return this.model.getCurrName();
   }
 
+  @Override
+  public List<String> getLayerNames() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < model.numPhoto(); i++) {
+      names.add(model.getName(i));
+    }
+    return names;
+  }
+
 
   /**
    * This method repaints the view to reflect the current state of the application after the
@@ -140,7 +165,7 @@ public class SwingController implements Features {
     if (model.getHeight() == 0) {
       view.repaintHelp();
     } else {
-      BufferedImage image = FileActions.topVisibleBuffer(model);
+      BufferedImage image = display.update(model);
       view.repaintHelpWithImage(image);
     }
   }
@@ -0,0 +1,21 @@
+package model;
+
+/**
+ * This represents how a layer applies several color matrices that were applied to it one after
+ * another before its pixels were read.
+ */
+public enum ColorFusion {
+
+  /**
+   * Every matrix is applied in turn to each pixel, in a single pass over the image. The result is
+   * clamped and rounded after every matrix, so it is the same as applying the matrices one by one.
+   */
+  EXACT,
+
+  /**
+   * The matrices are multiplied into one matrix, which is applied once. This is faster for long
+   * chains, but the result is only clamped and rounded at the end, so values that a single matrix
+   * would push past 0 or 255 can come out different than when the matrices are applied one by one.
+   */
+  FUSED
+}
@@ -0,0 +1,144 @@
+package model;
+
+/**
+ * This class applies a 3x3 color matrix to 8-bit pixels through nine tables of 256 entries, one for
+ * every value of the matrix and every value of the channel it multiplies. The tables hold the
+ * products as fixed-point integers, so a new channel value is three table loads, two integer adds
+ * and a shift, instead of three multiplies and two adds in floating point.
+ *
+ * <p>The fixed-point sum is within two units of the floating point one. The result only differs
+ * from what the floating point math rounds to when the sum lies that close to a point halfway
+ * between two integers, so those few values are computed again in floating point. This keeps the
+ * output the same as applyColorToPixel.
+ */
+final class ColorTable {
+
+  /**
+   * The most fraction bits the products are kept with.
+   */
+  private static final int MAX_BITS = 20;
+
+  /**
+   * The fewest fraction bits worth using. Matrices with values so large that they would need fewer
+   * are applied in floating point.
+   */
+  private static final int MIN_BITS = 10;
+
+  /**
+   * How far, in fixed-point units, a sum must lie from a halfway point to be rounded without
+   * checking it in floating point. Each of the three table entries is off by at most half a unit.
+   */
+  private static final int MARGIN = 2;
+
+  private final double[] m;
+  private final int[] tables;
+  private final int bits;
+  private final int half;
+  private final int mask;
+
+  /**
+   * Creates the tables of a matrix.
+   *
+   * @param m    the nine values of the matrix, row by row
+   * @param bits the number of fraction bits of the products
+   */
+  private ColorTable(double[] m, int bits) {
+    this.m = m;
+    this.bits = bits;
+    this.half = 1 << (bits - 1);
+    this.mask = (1 << bits) - 1;
+
+    // table k starts at k * 256
+    this.tables = new int[9 * 256];
+    for (int k = 0; k < 9; k++) {
+      for (int v = 0; v < 256; v++) {
+        tables[k * 256 + v] = (int) Math.round(Math.scalb(m[k] * v, bits));
+      }
+    }
+  }
+
+  /**
+   * Builds the tables of a matrix, if the sums of its products fit in an integer with enough
+   * fraction bits.
+   *
+   * @param m the nine values of the matrix, row by row
+   * @return the tables, or null if the matrix has to be applied in floating point
+   */
+  static ColorTable of(double[] m) {
+    double largest = 0;
+    for (double value : m) {
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        return null;
+      }
+      largest = Math.max(largest, Math.abs(value));
+    }
+
+    // three products of up to 255 times the largest value, with room to spare for the rounding
+    int bits = MAX_BITS;
+    while (bits >= MIN_BITS && 3 * 255 * largest * (1 << bits) >= (1 << 30)) {
+      bits--;
+    }
+    return bits < MIN_BITS ? null : new ColorTable(m, bits);
+  }
+
+  /**
+   * Applies the matrix to a range of packed ARGB pixels and writes them as opaque pixels.
+   *
+   * @param src  the source pixels
+   * @param dest where the transformed pixels are written
+   * @param from the index of the first pixel
+   * @param to   the index after the last pixel
+   */
+  void apply(int[] src, int[] dest, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int value = src[i];
+      int red = (value >> 16) & 0xFF;
+      int green = (value >> 8) & 0xFF;
+      int blue = value & 0xFF;
+      dest[i] = PackedImage.pack(channel(0, red, green, blue), channel(1, red, green, blue),
+          channel(2, red, green, blue));
+    }
+  }
+
+  /**
+   * Applies the matrix to a range of pixels of a planar image.
+   *
+   * @param red   the red plane
+   * @param green the green plane
+   * @param blue  the blue plane
+   * @param dest  the red, green and blue planes where the result is written
+   * @param from  the index of the first pixel
+   * @param to    the index after the last pixel
+   */
+  void apply(byte[] red, byte[] green, byte[] blue, byte[][] dest, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int r = red[i] & 0xFF;
+      int g = green[i] & 0xFF;
+      int b = blue[i] & 0xFF;
+      dest[0][i] = (byte) channel(0, r, g, b);
+      dest[1][i] = (byte) channel(1, r, g, b);
+      dest[2][i] = (byte) channel(2, r, g, b);
+    }
+  }
+
+  /**
+   * Computes one new channel value from one row of the matrix, clamped to 0-255 and rounded the
+   * same way as PackedImage.clamp.
+   *
+   * @param row   the row of the matrix, 0 for red, 1 for green and 2 for blue
+   * @param red   the red value of the pixel
+   * @param green the green value of the pixel
+   * @param blue  the blue value of the pixel
+   * @return the new channel value
+   */
+  int channel(int row, int red, int green, int blue) {
+    int k = row * 3;
+    int sum = tables[k * 256 + red] + tables[(k + 1) * 256 + green] + tables[(k + 2) * 256 + blue]
+        + half;
+    int fraction = sum & mask;
+    if (fraction < MARGIN || fraction > mask - MARGIN) {
+      return PackedImage.clamp(m[k] * red + m[k + 1] * green + m[k + 2] * blue);
+    }
+    return Math.max(0, Math.min(255, sum >> bits));
+  }
+}
@@ -0,0 +1,209 @@
+package model;
+
+import java.util.List;
+
+/**
+ * This class holds the loops that apply a 3x3 color matrix to a whole image. The matrix is checked
+ * and read into local values once per call, the rows of the image are processed in parallel on the
+ * worker pool, and nothing is allocated for the individual pixels. Since the channels are 8-bit,
+ * the matrix is turned into lookup tables (see ColorTable) whenever its values allow it.
+ */
+final class ColorTransform {
+
+  private ColorTransform() {
+  }
+
+  /**
+   * Applies the color matrix to every pixel of a packed image.
+   *
+   * @param argb   the packed ARGB pixels in row-major order
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @param matrix the 3x3 color matrix
+   * @return the transformed packed pixels
+   * @throws IllegalArgumentException if the matrix is not a 3x3
+   */
+  static int[] apply(int[] argb, int height, int width, double[][] matrix)
+      throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    double[] m = flatten(matrix);
+    ColorTable table = ColorTable.of(m);
+    int[] result = new int[argb.length];
+
+    if (table != null) {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          table.apply(argb, result, from * width, to * width));
+    } else {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          VectorSupport.kernels().applyColor(m, argb, result, from * width, to * width));
+    }
+    return result;
+  }
+
+  /**
+   * Applies several color matrices one after another to every pixel of a packed image, in a single
+   * pass. The values are clamped and rounded after every matrix, so the result is the same as
+   * applying the matrices one at a time.
+   *
+   * @param argb     the packed ARGB pixels in row-major order
+   * @param height   the height of the image
+   * @param width    the width of the image
+   * @param matrices the 3x3 color matrices, in the order they are applied
+   * @return the transformed packed pixels
+   * @throws IllegalArgumentException if there are no matrices or any of them is not a 3x3
+   */
+  static int[] applyChain(int[] argb, int height, int width, List<double[][]> matrices)
+      throws IllegalArgumentException {
+    if (matrices == null || matrices.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one matrix.");
+    }
+
+    if (matrices.size() == 1) {
+      return apply(argb, height, width, matrices.get(0));
+    }
+
+    double[][] chain = new double[matrices.size()][];
+    ColorTable[] tables = new ColorTable[chain.length];
+    for (int i = 0; i < chain.length; i++) {
+      PackedImage.checkMatrix(matrices.get(i));
+      chain[i] = flatten(matrices.get(i));
+      tables[i] = ColorTable.of(chain[i]);
+    }
+    int[] result = new int[argb.length];
+
+    WorkerPool.forEachBand(height, width, (from, to) -> {
+      for (int i = from * width; i < to * width; i++) {
+        int value = argb[i];
+        int red = (value >> 16) & 0xFF;
+        int green = (value >> 8) & 0xFF;
+        int blue = value & 0xFF;
+
+        for (int j = 0; j < chain.length; j++) {
+          int newRed;
+          int newGreen;
+          if (tables[j] != null) {
+            newRed = tables[j].channel(0, red, green, blue);
+            newGreen = tables[j].channel(1, red, green, blue);
+            blue = tables[j].channel(2, red, green, blue);
+          } else {
+            double[] m = chain[j];
+            newRed = PackedImage.clamp(m[0] * red + m[1] * green + m[2] * blue);
+            newGreen = PackedImage.clamp(m[3] * red + m[4] * green + m[5] * blue);
+            blue = PackedImage.clamp(m[6] * red + m[7] * green + m[8] * blue);
+          }
+          red = newRed;
+          green = newGreen;
+        }
+        result[i] = PackedImage.pack(red, green, blue);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Multiplies color matrices into the single matrix that has the same effect as applying them in
+   * the given order, when no clamping happens in between.
+   *
+   * @param matrices the 3x3 color matrices, in the order they are applied
+   * @return the combined 3x3 matrix
+   * @throws IllegalArgumentException if there are no matrices or any of them is not a 3x3
+   */
+  static double[][] multiply(List<double[][]> matrices) throws IllegalArgumentException {
+    if (matrices == null || matrices.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one matrix.");
+    }
+
+    double[][] result = null;
+    for (double[][] matrix : matrices) {
+      PackedImage.checkMatrix(matrix);
+      if (result == null) {
+        result = new double[][] {matrix[0].clone(), matrix[1].clone(), matrix[2].clone()};
+        continue;
+      }
+
+      // the later matrix is applied to the output of the earlier ones, so it goes on the left
+      double[][] product = new double[3][3];
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          for (int k = 0; k < 3; k++) {
+            product[i][j] += matrix[i][k] * result[k][j];
+          }
+        }
+      }
+      result = product;
+    }
+    return result;
+  }
+
+  /**
+   * Applies the color matrix to every pixel of a planar image.
+   *
+   * @param red    the red plane
+   * @param green  the green plane
+   * @param blue   the blue plane
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @param matrix the 3x3 color matrix
+   * @return the transformed red, green and blue planes
+   * @throws IllegalArgumentException if the matrix is not a 3x3
+   */
+  static byte[][] apply(byte[] red, byte[] green, byte[] blue, int height, int width,
+      double[][] matrix) throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    double[] m = flatten(matrix);
+    ColorTable table = ColorTable.of(m);
+    byte[][] result = new byte[3][red.length];
+
+    if (table != null) {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          table.apply(red, green, blue, result, from * width, to * width));
+    } else {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          applyRange(m, red, green, blue, result, from * width, to * width));
+    }
+    return result;
+  }
+
+  /**
+   * Copies the matrix into a flat array, so the loops read it from one place and a caller that
+   * changes its matrix halfway through does not change the result.
+   *
+   * @param matrix the 3x3 color matrix
+   * @return the nine values of the matrix, row by row
+   */
+  private static double[] flatten(double[][] matrix) {
+    double[] m = new double[9];
+    for (int i = 0; i < 3; i++) {
+      System.arraycopy(matrix[i], 0, m, i * 3, 3);
+    }
+    return m;
+  }
+
+  /**
+   * Applies the color matrix to a range of pixels of a planar image.
+   *
+   * @param m      the flattened color matrix
+   * @param red    the red plane
+   * @param green  the green plane
+   * @param blue   the blue plane
+   * @param dest   the red, green and blue planes where the result is written
+   * @param from   the index of the first pixel
+   * @param to     the index after the last pixel
+   */
+  private static void applyRange(double[] m, byte[] red, byte[] green, byte[] blue,
+      byte[][] dest, int from, int to) {
+    byte[] newRed = dest[0];
+    byte[] newGreen = dest[1];
+    byte[] newBlue = dest[2];
+
+    for (int i = from; i < to; i++) {
+      int r = red[i] & 0xFF;
+      int g = green[i] & 0xFF;
+      int b = blue[i] & 0xFF;
+
+      newRed[i] = (byte) PackedImage.clamp(m[0] * r + m[1] * g + m[2] * b);
+      newGreen[i] = (byte) PackedImage.clamp(m[3] * r + m[4] * g + m[5] * b);
+      newBlue[i] = (byte) PackedImage.clamp(m[6] * r + m[7] * g + m[8] * b);
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the loops that filter a single channel plane of an image with a kernel. It is
+ * used by the image representations of the model, so that they all produce the same output for the
+ * same kernel. What is read for positions of the kernel that fall outside of the image is decided
+ * by an EdgeMode.
+ */
+final class Convolution {
+
+  private Convolution() {
+  }
+
+  /**
+   * Filters one plane with the given kernel. A separable kernel (like the blur kernel) is applied
+   * as a horizontal and then a vertical pass, which takes 2k instead of k*k multiplications per
+   * pixel; otherwise every non-zero weight of the kernel is visited for every pixel. A fixed-point
+   * kernel does the same with integers. The rows of the plane are split into bands that are
+   * filtered in parallel on the worker pool.
+   *
+   * @param plane  the plane to be filtered, in row-major order
+   * @param height the height of the plane
+   * @param width  the width of the plane
+   * @param kernel the kernel of the filter
+   * @param edges  what is read for positions of the kernel outside of the plane
+   * @return the filtered plane
+   */
+  static byte[] convolve(byte[] plane, int height, int width, Kernel kernel, EdgeMode edges) {
+    byte[] result = new byte[plane.length];
+    Kernel.FixedPoint fixed = kernel.fixed();
+    if (fixed != null && fixed.column() != null) {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          convolveSeparable(plane, height, width, fixed, edges, result, from, to));
+    } else if (fixed != null) {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          convolveGeneral(plane, height, width, kernel, fixed, edges, result, from, to));
+    } else if (kernel.isSeparable()) {
+      WorkerPool.forEachBand(height, width, (from, to) -> convolveSeparable(plane, height, width,
+          kernel.column(), kernel.row(), edges, result, from, to));
+    } else {
+      WorkerPool.forEachBand(height, width, (from, to) ->
+          convolveGeneral(plane, height, width, kernel, edges, result, from, to));
+    }
+    return result;
+  }
+
+  /**
+   * Filters a band of rows of one plane by visiting every non-zero weight of the kernel. Each row
+   * of the result is built up one weight at a time, by adding the weighted row of the source that
+   * the weight points at, so the inner loop is a plain multiply-add over contiguous memory.
+   *
+   * @param plane  the plane to be filtered
+   * @param height the height of the plane
+   * @param width  the width of the plane
+   * @param kernel the kernel of the filter
+   * @param edges  what is read for positions of the kernel outside of the plane
+   * @param result the plane where the filtered rows are written
+   * @param from   the first row of the band
+   * @param to     the row after the last row of the band
+   */
+  private static void convolveGeneral(byte[] plane, int height, int width, Kernel kernel,
+      EdgeMode edges, byte[] result, int from, int to) {
+    int[] rows = kernel.tapRows();
+    int[] columns = kernel.tapColumns();
+    double[] weights = kernel.tapWeights();
+    double[] acc = new double[width];
+
+    for (int y = from; y < to; y++) {
+      Arrays.fill(acc, 0);
+      for (int t = 0; t < weights.length; t++) {
+        int row = edges.map(y + rows[t], height);
+        if (row >= 0) {
+          addShifted(acc, plane, row * width, columns[t], weights[t], width, edges);
+        }
+      }
+      store(acc, result, y * width, width);
+    }
+  }
+
+  /**
+   * Filters a band of rows of one plane by visiting every non-zero weight of a fixed-point kernel.
+   * This is the same as the floating point version, but the sums are kept as integers.
+   *
+   * @param plane  the plane to be filtered
+   * @param height the height of the plane
+   * @param width  the width of the plane
+   * @param kernel the kernel of the filter
+   * @param fixed  the integer form of the kernel
+   * @param edges  what is read for positions of the kernel outside of the plane
+   * @param result the plane where the filtered rows are written
+   * @param from   the first row of the band
+   * @param to     the row after the last row of the band
+   */
+  private static void convolveGeneral(byte[] plane, int height, int width, Kernel kernel,
+      Kernel.FixedPoint fixed, EdgeMode edges, byte[] result, int from, int to) {
+    int[] rows = kernel.tapRows();
+    int[] columns = kernel.tapColumns();
+    int[] weights = fixed.tapWeights();
+    int[] acc = new int[width];
+
+    for (int y = from; y < to; y++) {
+      Arrays.fill(acc, 0);
+      for (int t = 0; t < weights.length; t++) {
+        int row = edges.map(y + rows[t], height);
+        if (row >= 0) {
+          addShifted(acc, plane, row * width, columns[t], weights[t], width, edges);
+        }
+      }
+      store(acc, fixed.shift(), result, y * width, width);
+    }
+  }
+
+  /**
+   * Filters a band of rows of one plane with a separable kernel. The horizontal pass is kept for
+   * only as many rows as the kernel is tall, in a ring of buffers, and the vertical pass adds those
+   * rows up. Each band fills its own ring, so bands can be filtered at the same time.
+   *
+   * @param plane  the plane to be filtered
+   * @param height the height of the plane
+   * @param width  the width of the plane
+   * @param column the vertical factor of the kernel
+   * @param row    the horizontal factor of the kernel
+   * @param edges  what is read for positions of the kernel outside of the plane
+   * @param result the plane where the filtered rows are written
+   * @param from   the first row of the band
+   * @param to     the row after the last row of the band
+   */
+  private static void convolveSeparable(byte[] plane, int height, int width, double[] column,
+      double[] row, EdgeMode edges, byte[] result, int from, int to) {
+    int size = column.length;
+    int radius = (size - 1) / 2;
+    double[][] ring = new double[size][width];
+    double[] far = new double[width];
+    double[] acc = new double[width];
+    PixelKernels kernels = VectorSupport.kernels();
+
+    // fill the ring with the rows that the first output row needs, except the last one
+    for (int r = Math.max(0, from - radius); r < from + radius && r < height; r++) {
+      horizontal(plane, r, width, row, edges, ring[r % size]);
+    }
+
+    for (int y = from; y < to; y++) {
+      int next = y + radius;
+      if (next < height) {
+        horizontal(plane, next, width, row, edges, ring[next % size]);
+      }
+
+      Arrays.fill(acc, 0);
+      for (int i = 0; i < size; i++) {
+        int r = edges.map(y + i - radius, height);
+        if (r < 0) {
+          continue;
+        }
+
+        // only wrapping can reach a row that is not in the ring
+        double[] source = ring[r % size];
+        if (r < y - radius || r > y + radius) {
+          horizontal(plane, r, width, row, edges, far);
+          source = far;
+        }
+        kernels.addWeighted(acc, source, width, column[i]);
+      }
+      store(acc, result, y * width, width);
+    }
+  }
+
+  /**
+   * Filters a band of rows of one plane with the integer factors of a fixed-point kernel. This is
+   * the same as the floating point version, but the sums are kept as integers.
+   *
+   * @param plane  the plane to be filtered
+   * @param height the height of the plane
+   * @param width  the width of the plane
+   * @param fixed  the integer form of the kernel, with its factors
+   * @param edges  what is read for positions of the kernel outside of the plane
+   * @param result the plane where the filtered rows are written
+   * @param from   the first row of the band
+   * @param to     the row after the last row of the band
+   */
+  private static void convolveSeparable(byte[] plane, int height, int width,
+      Kernel.FixedPoint fixed, EdgeMode edges, byte[] result, int from, int to) {
+    int[] column = fixed.column();
+    int[] row = fixed.row();
+    int size = column.length;
+    int radius = (size - 1) / 2;
+    int[][] ring = new int[size][width];
+    int[] far = new int[width];
+    int[] acc = new int[width];
+    PixelKernels kernels = VectorSupport.kernels();
+
+    for (int r = Math.max(0, from - radius); r < from + radius && r < height; r++) {
+      horizontal(plane, r, width, row, edges, ring[r % size]);
+    }
+
+    for (int y = from; y < to; y++) {
+      int next = y + radius;
+      if (next < height) {
+        horizontal(plane, next, width, row, edges, ring[next % size]);
+      }
+
+      Arrays.fill(acc, 0);
+      for (int i = 0; i < size; i++) {
+        int r = edges.map(y + i - radius, height);
+        if (r < 0 || column[i] == 0) {
+          continue;
+        }
+
+        int[] source = ring[r % size];
+        if (r < y - radius || r > y + radius) {
+          horizontal(plane, r, width, row, edges, far);
+          source = far;
+        }
+        kernels.addWeighted(acc, source, width, column[i]);
+      }
+      store(acc, fixed.separableShift(), result, y * width, width);
+    }
+  }
+
+  /**
+   * Runs the horizontal pass of a separable kernel over one row of a plane.
+   *
+   * @param plane the plane to be filtered
+   * @param y     the row to be filtered
+   * @param width the width of the plane
+   * @param row   the horizontal factor of the kernel
+   * @param edges what is read for positions of the kernel outside of the plane
+   * @param dest  where the filtered row is written
+   */
+  private static void horizontal(byte[] plane, int y, int width, double[] row, EdgeMode edges,
+      double[] dest) {
+    int radius = (row.length - 1) / 2;
+    Arrays.fill(dest, 0);
+    for (int j = 0; j < row.length; j++) {
+      addShifted(dest, plane, y * width, j - radius, row[j], width, edges);
+    }
+  }
+
+  /**
+   * Adds a weighted row of a plane, shifted by the given amount, to the accumulator. The interior
+   * of the row, where every value comes from inside the plane, is done in one branch-free loop.
+   * Only the few positions at the ends of the row, which would read outside of the plane, go
+   * through the edge mode.
+   *
+   * @param acc      the accumulator for one row
+   * @param plane    the plane the values come from
+   * @param rowStart the index of the first value of the row in the plane
+   * @param shift    how far right of the output position the value is read
+   * @param weight   the weight of the values
+   * @param width    the width of the plane
+   * @param edges    what is read for positions outside of the plane
+   */
+  private static void addShifted(double[] acc, byte[] plane, int rowStart, int shift,
+      double weight, int width, EdgeMode edges) {
+    int from = Math.min(width, Math.max(0, -shift));
+    int to = Math.max(from, Math.min(width, width - shift));
+    VectorSupport.kernels().addWeighted(acc, plane, rowStart + shift, from, to, weight);
+
+    if (edges == EdgeMode.ZERO) {
+      return;
+    }
+    for (int x = 0; x < from; x++) {
+      acc[x] += weight * (plane[rowStart + edges.map(x + shift, width)] & 0xFF);
+    }
+    for (int x = to; x < width; x++) {
+      acc[x] += weight * (plane[rowStart + edges.map(x + shift, width)] & 0xFF);
+    }
+  }
+
+  /**
+   * Clamps and rounds an accumulated row into the result plane.
+   *
+   * @param acc    the accumulated row
+   * @param result the result plane
+   * @param start  the index of the row in the result plane
+   * @param width  the width of the plane
+   */
+  private static void store(double[] acc, byte[] result, int start, int width) {
+    for (int x = 0; x < width; x++) {
+      result[start + x] = (byte) PackedImage.clamp(acc[x]);
+    }
+  }
+
+  /**
+   * Runs the horizontal pass of an integer factor over one row of a plane.
+   *
+   * @param plane the plane to be filtered
+   * @param y     the row to be filtered
+   * @param width the width of the plane
+   * @param row   the horizontal factor of the kernel, as integers
+   * @param edges what is read for positions of the kernel outside of the plane
+   * @param dest  where the filtered row is written
+   */
+  private static void horizontal(byte[] plane, int y, int width, int[] row, EdgeMode edges,
+      int[] dest) {
+    int radius = (row.length - 1) / 2;
+    Arrays.fill(dest, 0);
+    for (int j = 0; j < row.length; j++) {
+      if (row[j] != 0) {
+        addShifted(dest, plane, y * width, j - radius, row[j], width, edges);
+      }
+    }
+  }
+
+  /**
+   * Adds a row of a plane times an integer weight, shifted by the given amount, to the
+   * accumulator, in the same way as the floating point version.
+   *
+   * @param acc      the accumulator for one row
+   * @param plane    the plane the values come from
+   * @param rowStart the index of the first value of the row in the plane
+   * @param shift    how far right of the output position the value is read
+   * @param weight   the weight of the values
+   * @param width    the width of the plane
+   * @param edges    what is read for positions outside of the plane
+   */
+  private static void addShifted(int[] acc, byte[] plane, int rowStart, int shift, int weight,
+      int width, EdgeMode edges) {
+    int from = Math.min(width, Math.max(0, -shift));
+    int to = Math.max(from, Math.min(width, width - shift));
+    VectorSupport.kernels().addWeighted(acc, plane, rowStart + shift, from, to, weight);
+
+    if (edges == EdgeMode.ZERO) {
+      return;
+    }
+    for (int x = 0; x < from; x++) {
+      acc[x] += weight * (plane[rowStart + edges.map(x + shift, width)] & 0xFF);
+    }
+    for (int x = to; x < width; x++) {
+      acc[x] += weight * (plane[rowStart + edges.map(x + shift, width)] & 0xFF);
+    }
+  }
+
+  /**
+   * Shifts an accumulated integer row back by the fraction bits of the kernel, rounding half up
+   * like Math.round, and clamps it into the result plane.
+   *
+   * @param acc    the accumulated row
+   * @param bits   the number of fraction bits of the sums
+   * @param result the result plane
+   * @param start  the index of the row in the result plane
+   * @param width  the width of the plane
+   */
+  private static void store(int[] acc, int bits, byte[] result, int start, int width) {
+    int half = bits == 0 ? 0 : 1 << (bits - 1);
+    for (int x = 0; x < width; x++) {
+      int value = (acc[x] + half) >> bits;
+      result[start + x] = (byte) Math.max(0, Math.min(255, value));
+    }
+  }
+}
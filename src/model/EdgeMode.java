@@ -0,0 +1,58 @@
+package model;
+
+/**
+ * This represents what a filter reads for the positions of its kernel that fall outside of the
+ * image, near the edges.
+ */
+public enum EdgeMode {
+
+  /**
+   * Positions outside of the image count as black. This is how filters have always behaved.
+   */
+  ZERO,
+
+  /**
+   * Positions outside of the image take the value of the closest pixel on the edge.
+   */
+  CLAMP,
+
+  /**
+   * Positions outside of the image are mirrored back in around the edge pixel, so the pixel one
+   * step outside reads the pixel one step inside.
+   */
+  MIRROR,
+
+  /**
+   * Positions outside of the image wrap around to the other side, as if the image were tiled.
+   */
+  WRAP;
+
+  /**
+   * Maps a row or column index that may lie outside of the image to the index that is read for it.
+   *
+   * @param index the row or column index
+   * @param size  the height or width of the image
+   * @return the index to read, or -1 if nothing is read (the value counts as black)
+   */
+  int map(int index, int size) {
+    if (index >= 0 && index < size) {
+      return index;
+    }
+
+    switch (this) {
+      case CLAMP:
+        return index < 0 ? 0 : size - 1;
+      case MIRROR:
+        if (size == 1) {
+          return 0;
+        }
+        int period = 2 * (size - 1);
+        int folded = Math.floorMod(index, period);
+        return folded < size ? folded : period - folded;
+      case WRAP:
+        return Math.floorMod(index, size);
+      default:
+        return -1;
+    }
+  }
+}
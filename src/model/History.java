@@ -0,0 +1,224 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the undo and redo history of a layer model. Each state is a list of copies of
+ * the layers of the model. Images can not change once they are made, so the copies share them
+ * with the model and with each other, and a state only costs memory for the images that no other
+ * state and not the model itself still uses: applying a filter to one layer of a large document
+ * keeps one old image, not a copy of every layer.
+ *
+ * <p>The memory of the images that only the history holds (counted as four bytes per pixel, plus a
+ * small amount for every layer of every state) is kept under a limit by dropping the oldest states.
+ * A state that is dropped, or handed back to the model by undo or redo, is disposed, so images kept
+ * off the heap are freed as soon as neither the model nor the history holds them.
+ */
+final class History {
+
+  /**
+   * The memory limit of a new history, in bytes.
+   */
+  static final long DEFAULT_LIMIT = 256L << 20;
+
+  /**
+   * The memory counted for every layer of a state, on top of its image.
+   */
+  private static final long LAYER_BYTES = 256;
+
+  /**
+   * The count of uses that marks an image of the model itself while trimming.
+   */
+  private static final int LIVE = -1;
+
+  private final Deque<State> undo = new ArrayDeque<State>();
+  private final Deque<State> redo = new ArrayDeque<State>();
+  private long limit = DEFAULT_LIMIT;
+
+  /**
+   * This represents the model at one point of its history: its layers, and which one is current.
+   */
+  static final class State {
+    final List<Layer> layers;
+    final int current;
+
+    /**
+     * Creates a state.
+     *
+     * @param layers  copies of the layers, in the order of the model
+     * @param current the index of the current layer, or -1 if there is none
+     */
+    State(List<Layer> layers, int current) {
+      this.layers = Collections.unmodifiableList(layers);
+      this.current = current;
+    }
+
+    /**
+     * Disposes the copies of the layers, once the state is no longer kept.
+     */
+    void dispose() {
+      for (Layer layer : layers) {
+        layer.dispose();
+      }
+    }
+  }
+
+  /**
+   * Records the state the model was in before a change. Anything that could be redone is dropped.
+   *
+   * @param before the state before the change
+   * @param live   the layers of the model after the change
+   */
+  void record(State before, List<ILayer> live) {
+    undo.addLast(before);
+    for (State state : redo) {
+      state.dispose();
+    }
+    redo.clear();
+    trim(live);
+  }
+
+  /**
+   * Tells whether there is a change to undo.
+   *
+   * @return true if undo can be called
+   */
+  boolean canUndo() {
+    return !undo.isEmpty();
+  }
+
+  /**
+   * Tells whether there is an undone change to redo.
+   *
+   * @return true if redo can be called
+   */
+  boolean canRedo() {
+    return !redo.isEmpty();
+  }
+
+  /**
+   * Goes one change back. The state that is given back is no longer kept, and the caller disposes
+   * it once it is restored.
+   *
+   * @param now the state of the model right now, which can then be redone
+   * @return the state the model goes back to
+   * @throws IllegalStateException if there is nothing to undo
+   */
+  State undo(State now) throws IllegalStateException {
+    if (undo.isEmpty()) {
+      throw new IllegalStateException("There is nothing to undo.");
+    }
+    redo.addLast(now);
+    return undo.removeLast();
+  }
+
+  /**
+   * Goes one undone change forward. The state that is given back is no longer kept, and the
+   * caller disposes it once it is restored.
+   *
+   * @param now the state of the model right now, which can then be undone again
+   * @return the state the model goes forward to
+   * @throws IllegalStateException if there is nothing to redo
+   */
+  State redo(State now) throws IllegalStateException {
+    if (redo.isEmpty()) {
+      throw new IllegalStateException("There is nothing to redo.");
+    }
+    undo.addLast(now);
+    return redo.removeLast();
+  }
+
+  /**
+   * Sets how much memory the history may hold, and drops the oldest states until it fits.
+   *
+   * @param limit the limit in bytes
+   * @param live  the layers of the model right now
+   * @throws IllegalArgumentException if the limit is negative
+   */
+  void setLimit(long limit, List<ILayer> live) throws IllegalArgumentException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("The history limit cannot be negative.");
+    }
+    this.limit = limit;
+    trim(live);
+  }
+
+  /**
+   * Drops the oldest states that can be undone until the memory held only by the history is
+   * within the limit. If that is not enough, the states furthest away that can be redone are
+   * dropped too. The memory is counted once, and what each dropped state alone held is taken off
+   * it as the state goes.
+   *
+   * @param live the layers of the model right now, whose images are not counted
+   */
+  void trim(List<ILayer> live) {
+    Map<ImageRep, Integer> uses = new IdentityHashMap<ImageRep, Integer>();
+    for (ILayer layer : live) {
+      uses.put(((Layer) layer).storedImage(), LIVE);
+    }
+
+    long bytes = 0;
+    for (Deque<State> states : List.of(undo, redo)) {
+      for (State state : states) {
+        for (Layer layer : state.layers) {
+          bytes += LAYER_BYTES;
+          ImageRep image = layer.storedImage();
+          Integer count = uses.get(image);
+          if (count == null) {
+            bytes += imageBytes(image);
+            uses.put(image, 1);
+          } else if (count != LIVE) {
+            uses.put(image, count + 1);
+          }
+        }
+      }
+    }
+
+    while (!undo.isEmpty() && bytes > limit) {
+      bytes -= drop(undo.removeFirst(), uses);
+    }
+    while (!redo.isEmpty() && bytes > limit) {
+      bytes -= drop(redo.removeFirst(), uses);
+    }
+  }
+
+  /**
+   * Disposes a state that is dropped from the history, and gives the memory that only it held.
+   *
+   * @param state the state
+   * @param uses  how many layers of the kept states use each image, or LIVE for the images of the
+   *              model, which is updated for the layers of the state
+   * @return the memory in bytes that is no longer held
+   */
+  private static long drop(State state, Map<ImageRep, Integer> uses) {
+    long bytes = 0;
+    for (Layer layer : state.layers) {
+      bytes += LAYER_BYTES;
+      ImageRep image = layer.storedImage();
+      int count = uses.get(image);
+      if (count == 1) {
+        uses.remove(image);
+        bytes += imageBytes(image);
+      } else if (count != LIVE) {
+        uses.put(image, count - 1);
+      }
+    }
+    state.dispose();
+    return bytes;
+  }
+
+  /**
+   * Gives the memory counted for an image.
+   *
+   * @param image the image
+   * @return four bytes for every pixel
+   */
+  private static long imageBytes(ImageRep image) {
+    return 4L * image.getHeight() * image.getWidth();
+  }
+}
@@ -44,6 +44,15 @@ public interface ILayer {
    */
   void filterLayer(double[][] kernel);
 
+  /**
+   * Applies a compiled filter kernel to the ImageRep of the layer, reading the positions of the
+   * kernel that fall outside of the image as decided by the given edge mode.
+   *
+   * @param kernel the compiled filter kernel to be applied
+   * @param edges  what is read for positions of the kernel outside of the image
+   */
+  void filterLayer(Kernel kernel, EdgeMode edges);
+
   /**
    * Applies a color filter to the ImageRep of the layer. The filter that is applied corresponds to
    * the kernel provided in the parameter, ie. sepia or greyscale.
@@ -52,6 +61,22 @@ public interface ILayer {
    */
   void colorLayer(double[][] matrix);
 
+  /**
+   * Adjusts the tones of the ImageRep of the layer with the given table, ie. levels or curves.
+   *
+   * @param table the table of the adjustment
+   */
+  void adjustLayer(ToneTable table);
+
+  /**
+   * Sets how color matrices that are applied one after another, before the pixels of the layer are
+   * read, are combined.
+   *
+   * @param fusion the way the color matrices are combined
+   * @throws IllegalArgumentException if the fusion is null
+   */
+  void setColorFusion(ColorFusion fusion) throws IllegalArgumentException;
+
   /**
    * Shows whether the layer is visible or not.
    *
@@ -68,6 +93,23 @@ public interface ILayer {
    */
   IPixel getPixelAt(int i, int j);
 
+  /**
+   * Copies a rectangle of pixels of the layer into the given array as packed ARGB integers,
+   * without creating an object for every pixel.
+   *
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows to copy
+   * @param width  the number of columns to copy
+   * @param dest   the array the pixels are copied into
+   * @param offset the index in the array where the first pixel is written
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the layer, or the array is
+   *                                  null or too small
+   */
+  void getRGB(int row, int column, int height, int width, int[] dest, int offset, int scan)
+      throws IllegalArgumentException;
+
   /**
    * Generates the 2D array that the layer corresponds to.
    *
@@ -75,6 +117,21 @@ public interface ILayer {
    */
   IPixel[][] layerGenArray();
 
+  /**
+   * Gives the ImageRep that is stored in the layer.
+   *
+   * @return the ImageRep of the layer
+   */
+  ImageRep getImage();
+
+  /**
+   * Gives the revision of the pixels of the layer. It changes every time an image is added to the
+   * layer or a filter, color or tone adjustment is applied to it, and no two layers ever share a
+   * revision, so a layer whose revision is the same as before still has the same pixels.
+   *
+   * @return the revision of the layer
+   */
+  long getRevision();
 
   /**
    * This method will toggle the visibility of the layer. In other words, if it is visible it will
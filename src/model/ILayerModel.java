@@ -9,7 +9,9 @@ package model;
 public interface ILayerModel<K> extends IModel<K> {
 
   /**
-   * Duplicates an existing layer and adds it to the next index in the list of layers.
+   * Duplicates an existing layer and adds it to the next index in the list of layers. The new
+   * layer shares the pixels of the original until either of them is changed, so duplicating takes
+   * constant time and memory.
    *
    * @param desiredName the name of the new layer
    * @param duplicate   the layer that contains the image to be copied
@@ -63,6 +65,15 @@ public interface ILayerModel<K> extends IModel<K> {
    */
   void setCurrentFromIndex(int index) throws IllegalArgumentException;
 
+  /**
+   * Gives the layer with the given index, without making it the current one.
+   *
+   * @param index the index of the layer
+   * @return the layer
+   * @throws IllegalArgumentException if it doesnt exist
+   */
+  ILayer getLayer(int index) throws IllegalArgumentException;
+
   /**
    * Upload a given ImageRep to the layer model. It is added to a new visible layer.
    *
@@ -101,4 +112,64 @@ public interface ILayerModel<K> extends IModel<K> {
    * visible, it will become visible and stay the current layer.
    */
   void toggleVisible();
+
+  /**
+   * Sets how every layer of the model combines color matrices (ie. sepia and greyscale) that are
+   * applied one after another before its pixels are read. The default is ColorFusion.EXACT, which
+   * gives the same result as applying each matrix on its own.
+   *
+   * @param fusion the way the color matrices are combined
+   * @throws IllegalArgumentException if the fusion is null
+   */
+  void setColorFusion(ColorFusion fusion) throws IllegalArgumentException;
+
+  /**
+   * Sets what blur and sharpen read for the positions of their kernels that fall outside of the
+   * image. The default is EdgeMode.ZERO, which counts those positions as black.
+   *
+   * @param edges what is read for positions of the kernel outside of the image
+   * @throws IllegalArgumentException if the edge mode is null
+   */
+  void setEdgeMode(EdgeMode edges) throws IllegalArgumentException;
+
+  /**
+   * Undoes the last change to the model: a filter, color or tone adjustment, an upload, adding,
+   * duplicating or deleting a layer, or toggling the visibility of a layer. Which layer is current
+   * goes back to what it was before the change.
+   *
+   * @throws IllegalStateException if there is nothing to undo
+   */
+  void undo() throws IllegalStateException;
+
+  /**
+   * Redoes the last change that was undone. Making a new change drops the changes that could be
+   * redone.
+   *
+   * @throws IllegalStateException if there is nothing to redo
+   */
+  void redo() throws IllegalStateException;
+
+  /**
+   * Tells whether there is a change that can be undone.
+   *
+   * @return true if undo can be called
+   */
+  boolean canUndo();
+
+  /**
+   * Tells whether there is an undone change that can be redone.
+   *
+   * @return true if redo can be called
+   */
+  boolean canRedo();
+
+  /**
+   * Sets how much memory the undo history may use for images that the model itself no longer
+   * shows. Images are shared between the model and its history, so unchanged layers cost nothing.
+   * When the limit is passed, the oldest changes can no longer be undone.
+   *
+   * @param bytes the limit in bytes
+   * @throws IllegalArgumentException if the limit is negative
+   */
+  void setHistoryLimit(long bytes) throws IllegalArgumentException;
 }
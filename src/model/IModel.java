@@ -37,6 +37,59 @@ public interface IModel<K> {
    */
   void greyscale() throws IllegalStateException;
 
+  /**
+   * Makes the photo in the model brighter, or darker when the amount is negative, by adding the
+   * amount to every channel.
+   *
+   * @param amount how much is added to every channel, between -255 and 255
+   * @throws IllegalStateException    if there is no photo uploaded to the model
+   * @throws IllegalArgumentException if the amount is out of range
+   */
+  void brightness(int amount) throws IllegalStateException, IllegalArgumentException;
+
+  /**
+   * Applies a gamma correction to the photo in the model. A gamma above 1 brightens the middle
+   * tones and a gamma below 1 darkens them.
+   *
+   * @param gamma the gamma of the correction
+   * @throws IllegalStateException    if there is no photo uploaded to the model
+   * @throws IllegalArgumentException if the gamma is not a positive number
+   */
+  void gamma(double gamma) throws IllegalStateException, IllegalArgumentException;
+
+  /**
+   * Adjusts the levels of the photo in the model: the values between the black and white points
+   * are stretched over the whole range, and then a gamma correction is applied.
+   *
+   * @param black the value that becomes black
+   * @param white the value that becomes white
+   * @param gamma the gamma of the correction, 1 for none
+   * @throws IllegalStateException    if there is no photo uploaded to the model
+   * @throws IllegalArgumentException if the points or the gamma are out of range
+   */
+  void levels(int black, int white, double gamma)
+      throws IllegalStateException, IllegalArgumentException;
+
+  /**
+   * Applies a curve through the given control points to every channel of the photo in the model.
+   *
+   * @param inputs  the input values of the points, in increasing order
+   * @param outputs the output values of the points
+   * @throws IllegalStateException    if there is no photo uploaded to the model
+   * @throws IllegalArgumentException if the points are not valid
+   */
+  void curves(int[] inputs, int[] outputs) throws IllegalStateException, IllegalArgumentException;
+
+  /**
+   * Adjusts the tones of the photo in the model with a table that can have its own values for each
+   * channel.
+   *
+   * @param table the table of the adjustment
+   * @throws IllegalStateException    if there is no photo uploaded to the model
+   * @throws IllegalArgumentException if the table is null
+   */
+  void adjust(ToneTable table) throws IllegalStateException, IllegalArgumentException;
+
   /**
    * Creates a checkerboard image with the desired height of the tiles and amount of tiles.
    *
@@ -55,6 +108,23 @@ public interface IModel<K> {
    */
   IPixel getPixelAt(int row, int column);
 
+  /**
+   * Copies a rectangle of pixels of the photo in the model into the given array as packed ARGB
+   * integers, without creating an object for every pixel.
+   *
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows to copy
+   * @param width  the number of columns to copy
+   * @param dest   the array the pixels are copied into
+   * @param offset the index in the array where the first pixel is written
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the photo, or the array is
+   *                                  null or too small
+   */
+  void getRGB(int row, int column, int height, int width, int[] dest, int offset, int scan)
+      throws IllegalArgumentException;
+
 
   /**
    * If no image has been loaded, it returns 0. Otherwise it returns the number of photos.
@@ -4,6 +4,9 @@ package model;
  * This class is a way to represent an image. In particular, the image is made up of a 2D array of
  * pixels. Each one of these pixels has an integer field for red, green, and blue, to represent the
  * RGB color scheme.
+ *
+ * <p>This representation is kept for compatibility. Filtering and coloring the image converts it
+ * to a {@link PackedImage} first, so the result of those operations is a packed image.
  */
 public class Image implements ImageRep {
   private IPixel[][] pixelArray;
@@ -44,6 +47,16 @@ public class Image implements ImageRep {
    * @throws IllegalArgumentException if the array is null or has any zero dimension
    */
   private void properArray() throws IllegalArgumentException {
+    properArray(this.pixelArray);
+  }
+
+  /**
+   * Checks to see if the given array has proper formatting, without wrapping it in an image.
+   *
+   * @param pixelArray the array to be checked
+   * @throws IllegalArgumentException if the array is null or has any zero dimension
+   */
+  private static void properArray(IPixel[][] pixelArray) throws IllegalArgumentException {
     // array can't be null
     if (pixelArray == null) {
       throw new IllegalArgumentException("The pixel array cannot be null.");
@@ -76,8 +89,8 @@ public class Image implements ImageRep {
       throw new IllegalArgumentException("TargY is invalid");
     }
 
-    properArray();
-    new Image(arr).properArray();
+    properArray(this.pixelArray);
+    properArray(arr);
 
     double newRed = 0;
     double newGreen = 0;
@@ -120,8 +133,8 @@ public class Image implements ImageRep {
       throw new IllegalArgumentException("TargY is invalid");
     }
 
-    properArray();
-    new Image(arr).properArray();
+    properArray(this.pixelArray);
+    properArray(arr);
 
     double newRed = 0;
     double newGreen = 0;
@@ -163,15 +176,28 @@ public class Image implements ImageRep {
   public IPixel getPixelAt(int row, int column) throws IllegalArgumentException {
     properArray();
 
-    IPixel result;
-    try {
-      result = new Pixel(this.pixelArray[row][column].getRed(),
-          this.pixelArray[row][column].getGreen(),
-          this.pixelArray[row][column].getBlue());
-    } catch (ArrayIndexOutOfBoundsException err) {
-      result = new Pixel(0, 0, 0);
+    // positions outside of the image count as black
+    if (row < 0 || row >= this.pixelArray.length || column < 0
+        || column >= this.pixelArray[row].length) {
+      return new Pixel(0, 0, 0);
+    }
+    return new Pixel(this.pixelArray[row][column].getRed(),
+        this.pixelArray[row][column].getGreen(),
+        this.pixelArray[row][column].getBlue());
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException {
+    PackedImage.checkRegion(this, row, column, height, width, dest, offset, scan);
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        IPixel pixel = this.pixelArray[row + i][column + j];
+        dest[offset + i * scan + j] = PackedImage.pack(pixel.getRed(), pixel.getGreen(),
+            pixel.getBlue());
+      }
     }
-    return result;
   }
 
   /**
@@ -196,31 +222,21 @@ public class Image implements ImageRep {
 
   @Override
   public ImageRep colorPhoto(double[][] matrix) {
-    int height = getHeight();
-    int width = getWidth();
-
-    IPixel[][] copy = genArray();
+    return PackedImage.of(this).colorPhoto(matrix);
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        applyColorToPixel(matrix, i, j, copy);
-      }
-    }
-    return new Image(copy);
+  @Override
+  public ImageRep adjustPhoto(ToneTable table) {
+    return PackedImage.of(this).adjustPhoto(table);
   }
 
   @Override
   public ImageRep filterPhoto(double[][] kernel) {
-    int height = getHeight();
-    int width = getWidth();
-
-    IPixel[][] copy = genArray();
+    return PackedImage.of(this).filterPhoto(kernel);
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        applyFilterToPixel(kernel, i, j, copy);
-      }
-    }
-    return new Image(copy);
+  @Override
+  public ImageRep filterPhoto(Kernel kernel, EdgeMode edges) {
+    return PackedImage.of(this).filterPhoto(kernel, edges);
   }
 }
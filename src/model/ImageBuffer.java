@@ -0,0 +1,159 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class represents an image that is still being built. Pixels are written into it in bulk, a
+ * row or a rectangle at a time, as packed ARGB integers, and once it is complete it is turned into
+ * an ImageRep. This is the writing counterpart of ImageRep.getRGB.
+ *
+ * <p>A buffer made with forSize for a very large image writes its pixels off the heap, into an
+ * OffHeapImage, or for an image larger still, into the tiles of a TiledImage on the disk, instead
+ * of into an array.
+ */
+public class ImageBuffer {
+  private final int height;
+  private final int width;
+  private int[] argb;
+  private ManagedImage managed;
+
+  /**
+   * Creates a buffer of the given size whose pixels all start out as opaque black.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @throws IllegalArgumentException if either dimension is negative
+   */
+  public ImageBuffer(int height, int width) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+    this.height = height;
+    this.width = width;
+    this.argb = new int[height * width];
+    Arrays.fill(argb, 0xFF000000);
+  }
+
+  /**
+   * Creates a buffer that writes its pixels into an image kept outside of the heap.
+   *
+   * @param image the black image the pixels are written into
+   */
+  private ImageBuffer(ManagedImage image) {
+    this.height = image.getHeight();
+    this.width = image.getWidth();
+    this.managed = image;
+  }
+
+  /**
+   * Creates a buffer of the given size whose pixels all start out as opaque black. The pixels are
+   * kept in tiles on the disk if the image has at least TiledImage.getThreshold() pixels, off the
+   * heap if it has at least OffHeapImage.getThreshold() pixels, and in an array otherwise.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @return the buffer
+   * @throws IllegalArgumentException if either dimension is negative
+   */
+  public static ImageBuffer forSize(int height, int width) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+    // a row wider than a direct buffer can hold goes into tiles even below the threshold
+    if ((long) height * width >= TiledImage.getThreshold() || width > Integer.MAX_VALUE / 4) {
+      return new ImageBuffer(new TiledImage(height, width));
+    }
+    if ((long) height * width >= OffHeapImage.getThreshold()) {
+      return new ImageBuffer(new OffHeapImage(height, width));
+    }
+    return new ImageBuffer(height, width);
+  }
+
+  /**
+   * Gives the height of the image being built.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gives the width of the image being built.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Writes a rectangle of pixels from the given array, which holds them as packed RGB or ARGB
+   * integers. Row r and column c of the rectangle are read from src[offset + r * scan + c]. The
+   * alpha bits are ignored, since the images of the model are always opaque.
+   *
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows to write
+   * @param width  the number of columns to write
+   * @param src    the array the pixels are read from
+   * @param offset the index in the array of the first pixel
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the image, or the array is null
+   *                                  or too small
+   * @throws IllegalStateException    if the buffer was already turned into an image
+   */
+  public void setRGB(int row, int column, int height, int width, int[] src, int offset, int scan)
+      throws IllegalArgumentException, IllegalStateException {
+    checkOpen();
+    if (row < 0 || column < 0 || height < 0 || width < 0
+        || row + height > this.height || column + width > this.width) {
+      throw new IllegalArgumentException("The rectangle is outside of the image.");
+    }
+    if (src == null) {
+      throw new IllegalArgumentException("The array cannot be null.");
+    }
+    if (height > 0 && width > 0 && (offset < 0 || scan < width
+        || offset + (long) (height - 1) * scan + width > src.length)) {
+      throw new IllegalArgumentException("The array is too small for the rectangle.");
+    }
+
+    if (managed != null) {
+      managed.setRGB(row, column, height, width, src, offset, scan);
+      return;
+    }
+    for (int i = 0; i < height; i++) {
+      int from = offset + i * scan;
+      int to = (row + i) * this.width + column;
+      for (int j = 0; j < width; j++) {
+        argb[to + j] = 0xFF000000 | src[from + j];
+      }
+    }
+  }
+
+  /**
+   * Turns the pixels written so far into an image. The pixels are handed over to the image without
+   * being copied, so the buffer can not be written to afterwards.
+   *
+   * @return the finished image
+   * @throws IllegalStateException if the buffer was already turned into an image
+   */
+  public ImageRep toImage() throws IllegalStateException {
+    checkOpen();
+    ImageRep image = managed != null ? managed : new PackedImage(height, width, argb);
+    argb = null;
+    managed = null;
+    return image;
+  }
+
+  /**
+   * Checks that the buffer has not been turned into an image yet.
+   *
+   * @throws IllegalStateException if the buffer was already turned into an image
+   */
+  private void checkOpen() throws IllegalStateException {
+    if (argb == null && managed == null) {
+      throw new IllegalStateException("The image has already been built.");
+    }
+  }
+}
@@ -56,6 +56,25 @@ public interface ImageRep {
    */
   IPixel getPixelAt(int row, int column);
 
+  /**
+   * Copies a rectangle of pixels into the given array as packed ARGB integers (8 bits each for
+   * alpha, red, green and blue, with the alpha always 255). Row r and column c of the rectangle end
+   * up at dest[offset + r * scan + c]. The rectangle is checked once for the whole call, and no
+   * object is created for the individual pixels.
+   *
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows to copy
+   * @param width  the number of columns to copy
+   * @param dest   the array the pixels are copied into
+   * @param offset the index in the array where the first pixel is written
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the image, or the array is null
+   *                                  or too small
+   */
+  void getRGB(int row, int column, int height, int width, int[] dest, int offset, int scan)
+      throws IllegalArgumentException;
+
   /**
    * Generates the pixel array of the image stored inside the ImageRep.
    *
@@ -71,6 +90,16 @@ public interface ImageRep {
    */
   ImageRep filterPhoto(double[][] kernel);
 
+  /**
+   * Filters the photo in the ImageRep off the given compiled kernel, reading the positions of the
+   * kernel that fall outside of the photo as decided by the given edge mode.
+   *
+   * @param kernel the compiled kernel
+   * @param edges  what is read for positions of the kernel outside of the photo
+   * @return the ImageRep once the filter is applied
+   */
+  ImageRep filterPhoto(Kernel kernel, EdgeMode edges);
+
   /**
    * Colors the photo in the ImageRep off the given custom kernel.
    *
@@ -78,4 +107,13 @@ public interface ImageRep {
    * @return the ImageRep once the color is applied
    */
   ImageRep colorPhoto(double[][] matrix);
+
+  /**
+   * Adjusts the tones of the photo in the ImageRep by looking up every channel of every pixel in
+   * the given table.
+   *
+   * @param table the table of the adjustment
+   * @return the ImageRep once the adjustment is applied
+   */
+  ImageRep adjustPhoto(ToneTable table);
 }
@@ -0,0 +1,444 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a filter kernel that has been checked and analysed once, so that it can be
+ * applied to any number of images without being checked again. A kernel is a square grid of
+ * weights with an odd size. When it is made, the kernel works out whether it is symmetric, whether
+ * it is separable (the outer product of a column and a row), and which of its weights are not zero.
+ *
+ * <p>A kernel can also run in fixed-point mode (see withFixedPoint), where the weights are turned
+ * into integers and 8-bit images are filtered without any floating point math. This is only
+ * allowed when every weight is a multiple of a power of two, so the result is exactly the same.
+ * Kernels can not be changed after they are made.
+ */
+public final class Kernel {
+
+  /**
+   * The largest difference, relative to the biggest weight of the kernel, that is allowed between
+   * a kernel and the product of its two factors before the kernel is not seen as separable.
+   */
+  private static final double SEPARABLE_TOLERANCE = 1e-12;
+
+  /**
+   * The most fraction bits that a weight may need to be used in fixed-point mode.
+   */
+  private static final int MAX_FRACTION_BITS = 16;
+
+  private final double[][] weights;
+  private final int radius;
+  private final boolean symmetric;
+
+  // the weights that are not zero, in row-major order
+  private final int[] tapRows;
+  private final int[] tapColumns;
+  private final double[] tapWeights;
+
+  // the factors of a separable kernel, or null
+  private final double[] column;
+  private final double[] row;
+
+  // the fixed-point form, or null when the kernel runs in floating point
+  private final FixedPoint fixed;
+
+  /**
+   * Creates a kernel from the given weights and analyses it.
+   *
+   * @param weights the weights, already copied and checked
+   * @param fixed   the fixed-point form, or null
+   */
+  private Kernel(double[][] weights, FixedPoint fixed) {
+    this.weights = weights;
+    this.radius = (weights.length - 1) / 2;
+    this.fixed = fixed;
+
+    boolean mirrored = true;
+    List<Integer> rows = new ArrayList<Integer>();
+    List<Integer> columns = new ArrayList<Integer>();
+    List<Double> values = new ArrayList<Double>();
+    int size = weights.length;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        double weight = weights[i][j];
+        if (weight != weights[size - 1 - i][j] || weight != weights[i][size - 1 - j]) {
+          mirrored = false;
+        }
+        if (weight != 0) {
+          rows.add(i - radius);
+          columns.add(j - radius);
+          values.add(weight);
+        }
+      }
+    }
+    this.symmetric = mirrored;
+    this.tapRows = new int[rows.size()];
+    this.tapColumns = new int[rows.size()];
+    this.tapWeights = new double[rows.size()];
+    for (int t = 0; t < tapRows.length; t++) {
+      tapRows[t] = rows.get(t);
+      tapColumns[t] = columns.get(t);
+      tapWeights[t] = values.get(t);
+    }
+
+    double[][] factors = separate(weights);
+    this.column = factors == null ? null : factors[0];
+    this.row = factors == null ? null : factors[1];
+  }
+
+  /**
+   * Creates a kernel from a square grid of weights. The weights are copied, so later changes to
+   * the given array do not change the kernel.
+   *
+   * @param weights the weights of the kernel, row by row
+   * @return the kernel
+   * @throws IllegalArgumentException if the weights are null or not a square with an odd size
+   */
+  public static Kernel of(double[][] weights) throws IllegalArgumentException {
+    PackedImage.checkKernel(weights);
+
+    double[][] copy = new double[weights.length][];
+    for (int i = 0; i < weights.length; i++) {
+      copy[i] = weights[i].clone();
+    }
+    return new Kernel(copy, null);
+  }
+
+  /**
+   * Gives a kernel with the same weights that filters 8-bit images with integer math only. Every
+   * weight is multiplied by a power of two that turns it into a whole number, the pixels are added
+   * up as integers, and the sum is shifted back and rounded once at the end. Because the weights
+   * are exact, the result is the same as in floating point.
+   *
+   * @return the fixed-point kernel
+   * @throws IllegalArgumentException if a weight is not a multiple of a power of two (at most 2 to
+   *                                  the -16), or the sums could overflow an integer
+   */
+  public Kernel withFixedPoint() throws IllegalArgumentException {
+    if (fixed != null) {
+      return this;
+    }
+    return new Kernel(weights, new FixedPoint(this));
+  }
+
+  /**
+   * Gives the size (the width and the height) of the kernel.
+   *
+   * @return the size of the kernel
+   */
+  public int getSize() {
+    return weights.length;
+  }
+
+  /**
+   * Gives the weight at the given position of the kernel.
+   *
+   * @param row    the row of the weight
+   * @param column the column of the weight
+   * @return the weight
+   * @throws IllegalArgumentException if the position is outside of the kernel
+   */
+  public double getWeight(int row, int column) throws IllegalArgumentException {
+    if (row < 0 || row >= weights.length || column < 0 || column >= weights.length) {
+      throw new IllegalArgumentException("The position is outside of the kernel.");
+    }
+    return weights[row][column];
+  }
+
+  /**
+   * Gives a copy of the weights of the kernel.
+   *
+   * @return the weights, row by row
+   */
+  public double[][] toArray() {
+    double[][] copy = new double[weights.length][];
+    for (int i = 0; i < weights.length; i++) {
+      copy[i] = weights[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Tells whether the kernel stays the same when it is flipped left to right or top to bottom.
+   *
+   * @return true if the kernel is symmetric
+   */
+  public boolean isSymmetric() {
+    return symmetric;
+  }
+
+  /**
+   * Tells whether the kernel is the outer product of a column and a row, so it can be applied as
+   * two 1D passes.
+   *
+   * @return true if the kernel is separable
+   */
+  public boolean isSeparable() {
+    return column != null;
+  }
+
+  /**
+   * Gives how many weights of the kernel are not zero. Only those are visited when filtering.
+   *
+   * @return the number of non-zero weights
+   */
+  public int getNonZeroCount() {
+    return tapWeights.length;
+  }
+
+  /**
+   * Tells whether the kernel filters 8-bit images with integer math only.
+   *
+   * @return true if the kernel runs in fixed-point mode
+   */
+  public boolean isFixedPoint() {
+    return fixed != null;
+  }
+
+  int radius() {
+    return radius;
+  }
+
+  int[] tapRows() {
+    return tapRows;
+  }
+
+  int[] tapColumns() {
+    return tapColumns;
+  }
+
+  double[] tapWeights() {
+    return tapWeights;
+  }
+
+  double[] column() {
+    return column;
+  }
+
+  double[] row() {
+    return row;
+  }
+
+  FixedPoint fixed() {
+    return fixed;
+  }
+
+  /**
+   * Tries to split a kernel into the outer product of a column and a row.
+   *
+   * @param kernel the square kernel to be split
+   * @return an array holding the column and then the row, or null if the kernel is not separable
+   */
+  private static double[][] separate(double[][] kernel) {
+    int size = kernel.length;
+
+    // the biggest weight is used as the pivot, so the division below is as exact as possible
+    int pivotRow = 0;
+    int pivotColumn = 0;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(kernel[i][j]) > Math.abs(kernel[pivotRow][pivotColumn])) {
+          pivotRow = i;
+          pivotColumn = j;
+        }
+      }
+    }
+
+    double pivot = kernel[pivotRow][pivotColumn];
+    if (pivot == 0 || size == 1) {
+      return null;
+    }
+
+    double[] column = new double[size];
+    double[] row = new double[size];
+    int bits = fractionBits(kernel[pivotRow]);
+    long divisor = bits < 0 ? 0 : commonDivisor(kernel[pivotRow], bits);
+    if (divisor > 0) {
+      // the row of the pivot is made of whole multiples of a power of two, so it is divided by
+      // the greatest common divisor of those multiples instead of by the pivot, and the column
+      // takes the rest: both factors of a kernel like the binomial Gaussian then stay exact
+      double scaledPivot = Math.scalb(pivot, bits);
+      for (int i = 0; i < size; i++) {
+        column[i] = kernel[i][pivotColumn] * divisor / scaledPivot;
+        row[i] = Math.scalb(kernel[pivotRow][i], bits) / divisor;
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        column[i] = kernel[i][pivotColumn];
+        row[i] = kernel[pivotRow][i] / pivot;
+      }
+    }
+
+    double tolerance = Math.abs(pivot) * SEPARABLE_TOLERANCE;
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (Math.abs(kernel[i][j] - column[i] * row[j]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new double[][] {column, row};
+  }
+
+  /**
+   * Gives the smallest number of fraction bits that represents every value exactly.
+   *
+   * @param values the values
+   * @return the number of bits, or -1 if more than the maximum would be needed
+   */
+  private static int fractionBits(double[] values) {
+    int bits = 0;
+    for (double value : values) {
+      while (bits <= MAX_FRACTION_BITS && Math.scalb(value, bits) != Math.rint(
+          Math.scalb(value, bits))) {
+        bits++;
+      }
+    }
+    return bits > MAX_FRACTION_BITS ? -1 : bits;
+  }
+
+  /**
+   * Gives the greatest common divisor of values once they are scaled by a power of two into whole
+   * numbers.
+   *
+   * @param values the values, which must be exact at the given number of fraction bits
+   * @param bits   the number of fraction bits
+   * @return the divisor, or 0 if a scaled value is too large to be handled exactly
+   */
+  private static long commonDivisor(double[] values, int bits) {
+    long divisor = 0;
+    for (double value : values) {
+      double scaled = Math.abs(Math.scalb(value, bits));
+      if (scaled >= 1L << 52) {
+        return 0;
+      }
+      long remainder = (long) scaled;
+      while (remainder != 0) {
+        long next = divisor % remainder;
+        divisor = remainder;
+        remainder = next;
+      }
+    }
+    return divisor;
+  }
+
+  /**
+   * Scales values by a power of two into integers.
+   *
+   * @param values the values, which must be exact at the given number of fraction bits
+   * @param bits   the number of fraction bits
+   * @return the scaled integers
+   */
+  private static int[] scale(double[] values, int bits) {
+    int[] result = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (int) Math.scalb(values[i], bits);
+    }
+    return result;
+  }
+
+  /**
+   * Adds up the absolute values of integers.
+   *
+   * @param values the integers
+   * @return the sum of their absolute values
+   */
+  private static long absSum(int[] values) {
+    long sum = 0;
+    for (int value : values) {
+      sum += Math.abs((long) value);
+    }
+    return sum;
+  }
+
+  /**
+   * This represents the integer form of a kernel. The weights of the taps are scaled by 2 to the
+   * power of shift, and so are the factors of a separable kernel when they are exact as well.
+   */
+  static final class FixedPoint {
+    private final int shift;
+    private final int[] tapWeights;
+    private final int[] column;
+    private final int[] row;
+    private final int separableShift;
+
+    /**
+     * Builds the integer form of the given kernel.
+     *
+     * @param kernel the kernel
+     * @throws IllegalArgumentException if the weights are not exact or the sums could overflow
+     */
+    private FixedPoint(Kernel kernel) throws IllegalArgumentException {
+      int bits = fractionBits(kernel.tapWeights);
+      if (bits < 0) {
+        throw new IllegalArgumentException(
+            "The kernel weights can not be represented exactly in fixed point.");
+      }
+      this.shift = bits;
+      this.tapWeights = scale(kernel.tapWeights, bits);
+      if (absSum(tapWeights) * 255 > Integer.MAX_VALUE / 2) {
+        throw new IllegalArgumentException("The kernel weights are too large for fixed point.");
+      }
+
+      // the separable form is only used when its factors are exact, their product is exactly the
+      // kernel, and the sums can not overflow either
+      int columnBits = kernel.column == null ? -1 : fractionBits(kernel.column);
+      int rowBits = kernel.column == null ? -1 : fractionBits(kernel.row);
+      int[] fixedColumn = null;
+      int[] fixedRow = null;
+      if (columnBits >= 0 && rowBits >= 0) {
+        fixedColumn = scale(kernel.column, columnBits);
+        fixedRow = scale(kernel.row, rowBits);
+        if (absSum(fixedColumn) * absSum(fixedRow) * 255 > Integer.MAX_VALUE / 2
+            || !isProduct(kernel.weights, fixedColumn, fixedRow, columnBits + rowBits)) {
+          fixedColumn = null;
+          fixedRow = null;
+        }
+      }
+      this.column = fixedColumn;
+      this.row = fixedRow;
+      this.separableShift = fixedColumn == null ? 0 : columnBits + rowBits;
+    }
+
+    /**
+     * Tells whether the outer product of the scaled factors is exactly the scaled kernel.
+     *
+     * @param weights the weights of the kernel
+     * @param column  the scaled vertical factor
+     * @param row     the scaled horizontal factor
+     * @param bits    the number of fraction bits of the product
+     * @return true if every product is exactly the weight it stands for
+     */
+    private static boolean isProduct(double[][] weights, int[] column, int[] row, int bits) {
+      for (int i = 0; i < column.length; i++) {
+        for (int j = 0; j < row.length; j++) {
+          if (Math.scalb((double) column[i] * row[j], -bits) != weights[i][j]) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    int shift() {
+      return shift;
+    }
+
+    int[] tapWeights() {
+      return tapWeights;
+    }
+
+    int[] column() {
+      return column;
+    }
+
+    int[] row() {
+      return row;
+    }
+
+    int separableShift() {
+      return separableShift;
+    }
+  }
+}
@@ -1,14 +1,36 @@
 package model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This class represents a layer in the photo processing code model that uses. It is capable
  * of holding one ImageRep object, and can be visible or not. It also has a name.
+ *
+ * <p>Filters and colors are not applied right away. They are recorded, and only run once the
+ * pixels of the layer are read (for example through getPixelAt or getImage). Color matrices that
+ * are applied one after another are run together in a single pass over the image, either exactly
+ * or multiplied into one matrix, depending on the ColorFusion of the layer. Tone tables that are
+ * applied one after another are combined into a single table, which is exact.
+ *
+ * <p>Every change to the pixels gives the layer a new revision, taken from a counter shared by all
+ * layers, so saves can tell which layers have changed since they were last written.
+ *
+ * <p>A layer holds one reference to a ManagedImage it stores, and gives it back when the image is
+ * replaced or the layer is disposed, so the storage of the image is freed once no layer (and no
+ * copy of a layer in the history) uses it any more.
  */
 public class Layer implements ILayer {
 
+  private static final AtomicLong REVISIONS = new AtomicLong();
+
   private ImageRep photo;
   private String name;
   private boolean isVisible = true;
+  private ColorFusion fusion = ColorFusion.EXACT;
+  private final List<Operation> pending = new ArrayList<Operation>();
+  private long revision = REVISIONS.incrementAndGet();
 
   /**
    * Creates a layer object with a given ImageRep and name.
@@ -17,25 +39,27 @@ public class Layer implements ILayer {
    * @param name  the name of the layer
    */
   public Layer(ImageRep photo, String name) {
-    this.photo = photo;
+    this.photo = new PackedImage(0, 0);
     this.name = name;
+    setPhoto(photo);
   }
 
   /**
-   * Creates a new layer with a given String name. The ImageRep field is initialized as a 2D pixel
-   * array of size 0 by 0.
+   * Creates a new layer with a given String name. The ImageRep field is initialized as an empty
+   * image of size 0 by 0.
    *
    * @param name the name of the layer
    */
   public Layer(String name) {
-    IPixel[][] array = new Pixel[0][0];
-    this.photo = new Image(array);
+    this.photo = new PackedImage(0, 0);
     this.name = name;
   }
 
   @Override
-  public void addImage(ImageRep photo) {
-    this.photo = photo;
+  public synchronized void addImage(ImageRep photo) {
+    setPhoto(photo);
+    this.pending.clear();
+    this.revision = REVISIONS.incrementAndGet();
   }
 
   @Override
@@ -55,12 +79,55 @@ public class Layer implements ILayer {
 
   @Override
   public void filterLayer(double[][] kernel) {
-    this.photo = photo.filterPhoto(kernel);
+    filterLayer(Kernel.of(kernel), EdgeMode.ZERO);
+  }
+
+  @Override
+  public synchronized void filterLayer(Kernel kernel, EdgeMode edges) {
+    if (kernel == null || edges == null) {
+      throw new IllegalArgumentException("The kernel and edge mode cannot be null.");
+    }
+    pending.add(new Operation(kernel, edges, null, null));
+    revision = REVISIONS.incrementAndGet();
+  }
+
+  @Override
+  public synchronized void colorLayer(double[][] matrix) {
+    PackedImage.checkMatrix(matrix);
+    Operation last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+    if (last != null && last.matrices != null) {
+      last.matrices.add(copy(matrix));
+    } else {
+      List<double[][]> matrices = new ArrayList<double[][]>();
+      matrices.add(copy(matrix));
+      pending.add(new Operation(null, null, matrices, null));
+    }
+    revision = REVISIONS.incrementAndGet();
+  }
+
+  @Override
+  public synchronized void adjustLayer(ToneTable table) {
+    if (table == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+    int last = pending.size() - 1;
+    if (last >= 0 && pending.get(last).table != null) {
+      pending.set(last, new Operation(null, null, null, pending.get(last).table.then(table)));
+    } else {
+      pending.add(new Operation(null, null, null, table));
+    }
+    revision = REVISIONS.incrementAndGet();
   }
 
   @Override
-  public void colorLayer(double[][] matrix) {
-    this.photo = photo.colorPhoto(matrix);
+  public synchronized void setColorFusion(ColorFusion fusion) throws IllegalArgumentException {
+    if (fusion == null) {
+      throw new IllegalArgumentException("The color fusion cannot be null.");
+    }
+    if (fusion != this.fusion && !pending.isEmpty()) {
+      revision = REVISIONS.incrementAndGet();
+    }
+    this.fusion = fusion;
   }
 
   @Override
@@ -70,12 +137,50 @@ public class Layer implements ILayer {
 
   @Override
   public IPixel getPixelAt(int i, int j) {
-    return this.photo.getPixelAt(i, j);
+    return getImage().getPixelAt(i, j);
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException {
+    getImage().getRGB(row, column, height, width, dest, offset, scan);
   }
 
   @Override
   public IPixel[][] layerGenArray() {
-    return this.photo.genArray();
+    return getImage().genArray();
+  }
+
+  @Override
+  public synchronized ImageRep getImage() {
+    int done = 0;
+    try {
+      for (Operation operation : pending) {
+        if (operation.kernel != null) {
+          setPhoto(photo.filterPhoto(operation.kernel, operation.edges));
+        } else if (operation.table != null) {
+          setPhoto(photo.adjustPhoto(operation.table));
+        } else if (operation.matrices.size() == 1) {
+          setPhoto(photo.colorPhoto(operation.matrices.get(0)));
+        } else if (fusion == ColorFusion.FUSED) {
+          setPhoto(photo.colorPhoto(ColorTransform.multiply(operation.matrices)));
+        } else {
+          setPhoto(photo instanceof ManagedImage
+              ? ((ManagedImage) photo).colorChain(operation.matrices)
+              : PackedImage.of(photo).colorChain(operation.matrices));
+        }
+        done++;
+      }
+    } finally {
+      // if an operation fails, the ones before it already changed the photo and must not run again
+      pending.subList(0, done).clear();
+    }
+    return this.photo;
+  }
+
+  @Override
+  public synchronized long getRevision() {
+    return revision;
   }
 
   @Override
@@ -86,4 +191,113 @@ public class Layer implements ILayer {
       this.isVisible = true;
     }
   }
+
+  /**
+   * Makes a copy of this layer to be kept in the history of a model. The copy shares the image of
+   * this layer, which can not change, and its recorded operations, so it costs almost nothing. It
+   * keeps the revision of this layer, since it has the same pixels.
+   *
+   * @return the copy of the layer
+   */
+  synchronized Layer snapshot() {
+    Layer copy = new Layer(photo, name);
+    copy.isVisible = isVisible;
+    copy.fusion = fusion;
+    copy.revision = revision;
+    for (Operation operation : pending) {
+      // a run of matrices grows in place when another one is applied, so it is not shared
+      copy.pending.add(operation.matrices == null ? operation
+          : new Operation(null, null, new ArrayList<double[][]>(operation.matrices), null));
+    }
+    return copy;
+  }
+
+  /**
+   * Makes a new visible layer with the given name and the same pixels as this one, in constant
+   * time. The image and the pending operations are shared, not copied: an image can not change,
+   * and a change to either layer gives that layer a new image of its own, so the two never affect
+   * each other.
+   *
+   * @param name the name of the new layer
+   * @return the new layer
+   */
+  synchronized Layer duplicate(String name) {
+    Layer copy = snapshot();
+    copy.name = name;
+    copy.isVisible = true;
+    copy.revision = REVISIONS.incrementAndGet();
+    return copy;
+  }
+
+  /**
+   * Gives the image the layer holds right now, without running the operations that are still
+   * pending.
+   *
+   * @return the stored image
+   */
+  synchronized ImageRep storedImage() {
+    return photo;
+  }
+
+  /**
+   * Lets go of the image of the layer, once the layer is no longer used. If the image is a
+   * ManagedImage and no other layer holds it, its storage is freed right away. The layer is left
+   * empty.
+   */
+  synchronized void dispose() {
+    setPhoto(new PackedImage(0, 0));
+    pending.clear();
+  }
+
+  /**
+   * Replaces the image of the layer, taking a reference to the new image if it is a ManagedImage
+   * and giving back the reference to the old one.
+   *
+   * @param image the new image
+   */
+  private void setPhoto(ImageRep image) {
+    if (image instanceof ManagedImage) {
+      ((ManagedImage) image).retain();
+    }
+    ImageRep old = photo;
+    photo = image;
+    if (old instanceof ManagedImage) {
+      ((ManagedImage) old).release();
+    }
+  }
+
+  /**
+   * Copies a matrix, so that changes the caller makes to it later do not change the pending
+   * operation.
+   *
+   * @param values the values to be copied
+   * @return a copy of the values
+   */
+  private static double[][] copy(double[][] values) {
+    double[][] result = new double[values.length][];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i].clone();
+    }
+    return result;
+  }
+
+  /**
+   * This represents an operation that was applied to the layer but has not run yet. It is either a
+   * filter with a kernel and edge mode, a run of color matrices that were applied one after
+   * another, or a tone table.
+   */
+  private static final class Operation {
+    private final Kernel kernel;
+    private final EdgeMode edges;
+    private final List<double[][]> matrices;
+    private final ToneTable table;
+
+    private Operation(Kernel kernel, EdgeMode edges, List<double[][]> matrices,
+        ToneTable table) {
+      this.kernel = kernel;
+      this.edges = edges;
+      this.matrices = matrices;
+      this.table = table;
+    }
+  }
 }
@@ -10,8 +10,15 @@ import java.util.List;
  */
 public class LayerModel implements ILayerModel<ImageRep> {
 
+  // the weights of both kernels are exact binary fractions, so they run in fixed point
+  private static final Kernel BLUR = blurKernel();
+  private static final Kernel SHARPEN = sharpenKernel();
+
   List<ILayer> layers = new ArrayList<ILayer>();
   ILayer current;
+  private ColorFusion fusion = ColorFusion.EXACT;
+  private EdgeMode edges = EdgeMode.ZERO;
+  private final History history = new History();
 
   /**
    * This creates an object of the layer model class. The current field is initialized to null,
@@ -25,75 +32,17 @@ public class LayerModel implements ILayerModel<ImageRep> {
   @Override
   public void blur() throws IllegalStateException {
     checkForNullCurrent();
-    double[] row1 = new double[3];
-    row1[0] = (1 / 16.0);
-    row1[1] = (1 / 8.0);
-    row1[2] = (1 / 16.0);
-
-    double[] row2 = new double[3];
-    row2[0] = (1 / 8.0);
-    row2[1] = (1 / 4.0);
-    row2[2] = (1 / 8.0);
-
-    double[] row3 = new double[3];
-    row3[0] = (1 / 16.0);
-    row3[1] = (1 / 8.0);
-    row3[2] = (1 / 16.0);
-
-    double[][] kernel = new double[3][3];
-    kernel[0] = row1;
-    kernel[1] = row2;
-    kernel[2] = row3;
-
-    this.current.filterLayer(kernel);
+    History.State before = capture();
+    this.current.filterLayer(BLUR, edges);
+    record(before);
   }
 
   @Override
   public void sharpen() throws IllegalStateException {
     checkForNullCurrent();
-    double[] row1 = new double[5];
-    row1[0] = (-1 / 8.0);
-    row1[1] = (-1 / 8.0);
-    row1[2] = (-1 / 8.0);
-    row1[3] = (-1 / 8.0);
-    row1[4] = (-1 / 8.0);
-
-    double[] row2 = new double[5];
-    row2[0] = (-1 / 8.0);
-    row2[1] = (1 / 4.0);
-    row2[2] = (1 / 4.0);
-    row2[3] = (1 / 4.0);
-    row2[4] = (-1 / 8.0);
-
-    double[] row3 = new double[5];
-    row3[0] = (-1 / 8.0);
-    row3[1] = (1 / 4.0);
-    row3[2] = 1.0;
-    row3[3] = (1 / 4.0);
-    row3[4] = (-1 / 8.0);
-
-    double[] row4 = new double[5];
-    row4[0] = (-1 / 8.0);
-    row4[1] = (1 / 4.0);
-    row4[2] = (1 / 4.0);
-    row4[3] = (1 / 4.0);
-    row4[4] = (-1 / 8.0);
-
-    double[] row5 = new double[5];
-    row5[0] = (-1 / 8.0);
-    row5[1] = (-1 / 8.0);
-    row5[2] = (-1 / 8.0);
-    row5[3] = (-1 / 8.0);
-    row5[4] = (-1 / 8.0);
-
-    double[][] kernel = new double[5][5];
-    kernel[0] = row1;
-    kernel[1] = row2;
-    kernel[2] = row3;
-    kernel[3] = row4;
-    kernel[4] = row5;
-
-    this.current.filterLayer(kernel);
+    History.State before = capture();
+    this.current.filterLayer(SHARPEN, edges);
+    record(before);
   }
 
   @Override
@@ -119,7 +68,9 @@ public class LayerModel implements ILayerModel<ImageRep> {
     matrix[1] = row2;
     matrix[2] = row3;
 
+    History.State before = capture();
     this.current.colorLayer(matrix);
+    record(before);
   }
 
   @Override
@@ -145,7 +96,39 @@ public class LayerModel implements ILayerModel<ImageRep> {
     matrix[1] = row2;
     matrix[2] = row3;
 
+    History.State before = capture();
     this.current.colorLayer(matrix);
+    record(before);
+  }
+
+  @Override
+  public void brightness(int amount) throws IllegalStateException, IllegalArgumentException {
+    adjust(ToneTable.brightness(amount));
+  }
+
+  @Override
+  public void gamma(double gamma) throws IllegalStateException, IllegalArgumentException {
+    adjust(ToneTable.gamma(gamma));
+  }
+
+  @Override
+  public void levels(int black, int white, double gamma)
+      throws IllegalStateException, IllegalArgumentException {
+    adjust(ToneTable.levels(black, white, gamma));
+  }
+
+  @Override
+  public void curves(int[] inputs, int[] outputs)
+      throws IllegalStateException, IllegalArgumentException {
+    adjust(ToneTable.curves(inputs, outputs));
+  }
+
+  @Override
+  public void adjust(ToneTable table) throws IllegalStateException, IllegalArgumentException {
+    checkForNullCurrent();
+    History.State before = capture();
+    this.current.adjustLayer(table);
+    record(before);
   }
 
   /**
@@ -190,12 +173,13 @@ public class LayerModel implements ILayerModel<ImageRep> {
       }
     }
 
-    Image image = new Image(new Pixel[1][1]);
+    ImageRep image = new PackedImage(1, 1);
     return new Layer(image, "duplicate");
   }
 
   @Override
-  public ImageRep getCheckerboard(int heightOfTile, int numTiles) throws IllegalArgumentException {
+  public ImageRep getCheckerboard(int heightOfTile, int numTiles)
+      throws IllegalArgumentException, IllegalStateException {
 
     if (heightOfTile <= 0 || numTiles <= 0) {
       throw new IllegalArgumentException("arguments need to be greater than 0");
@@ -207,20 +191,26 @@ public class LayerModel implements ILayerModel<ImageRep> {
       throw new IllegalArgumentException("Number of tiles is not a perfect square.");
     }
 
-    Pixel[][] array = new Pixel[s * heightOfTile][s * heightOfTile];
+    int size = s * heightOfTile;
+    int[] array = new int[size * size];
 
-    for (int i = 0; i < array.length; i++) {
-      for (int j = 0; j < array[0].length; j++) {
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
         int sumIndices = getIndices(i, heightOfTile) + getIndices(j, heightOfTile);
         if (sumIndices % 2 == 0) {
-          array[i][j] = new Pixel(0, 0, 0);
+          array[i * size + j] = PackedImage.pack(0, 0, 0);
         } else {
-          array[i][j] = new Pixel(255, 255, 255);
+          array[i * size + j] = PackedImage.pack(255, 255, 255);
         }
       }
     }
-    ImageRep pic = new Image(array);
+    ImageRep pic = new PackedImage(size, size, array);
+    if (current == null) {
+      throw new IllegalStateException("Please choose a layer as current to upload to.");
+    }
+    History.State before = capture();
     this.current.addImage(pic);
+    record(before);
     return pic;
   }
 
@@ -229,10 +219,18 @@ public class LayerModel implements ILayerModel<ImageRep> {
     return this.current.getPixelAt(row, column);
   }
 
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException {
+    this.current.getRGB(row, column, height, width, dest, offset, scan);
+  }
+
   @Override
   public void toggleVisible() {
     checkForNullCurrent();
+    History.State before = capture();
     current.toggleVisibility();
+    record(before);
   }
 
   @Override
@@ -248,9 +246,11 @@ public class LayerModel implements ILayerModel<ImageRep> {
         throw new IllegalArgumentException("Layer already exists with that name");
       }
     }
-    ILayer layer = new Layer(image, name);
+    History.State before = capture();
+    ILayer layer = newLayer(image, name);
     layers.add(0, layer);
     current = layer;
+    record(before);
   }
 
   @Override
@@ -263,15 +263,20 @@ public class LayerModel implements ILayerModel<ImageRep> {
       }
     }
 
+    History.State before = capture();
+
     for (int i = 0; i < layers.size(); i++) {
       if (layers.get(i).getName().equals(duplicate)) {
-        layers.add(i + 1, new Layer(new Image(layers.get(i).layerGenArray()), desiredName));
+        // the duplicate shares the image, which can not change, instead of copying it
+        layers.add(i + 1, ((Layer) layers.get(i)).duplicate(desiredName));
         found = true;
       }
     }
     if (!found) {
+      before.dispose();
       throw new IllegalArgumentException("Layer not found.");
     }
+    record(before);
   }
 
   @Override
@@ -282,20 +287,53 @@ public class LayerModel implements ILayerModel<ImageRep> {
       }
     }
 
+    History.State before = capture();
     if (layers.size() == 0) {
-      ILayer layer = new Layer(name);
+      ILayer layer = newLayer(new PackedImage(0, 0), name);
       layers.add(layer);
       current = layer;
     } else {
 
-      ILayer layer = new Layer(new Image(new Pixel[current.getHeight()][current.getWidth()]),
-          name);
+      ILayer layer = newLayer(new PackedImage(current.getHeight(), current.getWidth()), name);
       layers.add(0, layer);
       current = layer;
     }
+    record(before);
   }
 
 
+  /**
+   * Creates a layer that uses the color fusion of this model.
+   *
+   * @param image the ImageRep of the new layer
+   * @param name  the name of the new layer
+   * @return the new layer
+   */
+  private ILayer newLayer(ImageRep image, String name) {
+    ILayer layer = new Layer(image, name);
+    layer.setColorFusion(fusion);
+    return layer;
+  }
+
+  @Override
+  public void setColorFusion(ColorFusion fusion) throws IllegalArgumentException {
+    if (fusion == null) {
+      throw new IllegalArgumentException("The color fusion cannot be null.");
+    }
+    this.fusion = fusion;
+    for (ILayer layer : layers) {
+      layer.setColorFusion(fusion);
+    }
+  }
+
+  @Override
+  public void setEdgeMode(EdgeMode edges) throws IllegalArgumentException {
+    if (edges == null) {
+      throw new IllegalArgumentException("The edge mode cannot be null.");
+    }
+    this.edges = edges;
+  }
+
   @Override
   public void setCurrent(String name) {
     boolean found = false;
@@ -316,6 +354,7 @@ public class LayerModel implements ILayerModel<ImageRep> {
     if (layers.size() <= 1) {
       throw new IllegalStateException("Cannot delete last layer");
     }
+    History.State before = capture();
     boolean found = false;
     for (int i = 0; i < layers.size(); i++) {
       // if desired name equals name in layer loop
@@ -329,13 +368,15 @@ public class LayerModel implements ILayerModel<ImageRep> {
             current = layers.get(i + 1);
           }
         }
-        layers.remove(i);
+        ((Layer) layers.remove(i)).dispose();
         found = true;
       }
     }
     if (!found) {
+      before.dispose();
       throw new IllegalStateException("Layer not found");
     }
+    record(before);
   }
 
   @Override
@@ -356,12 +397,22 @@ public class LayerModel implements ILayerModel<ImageRep> {
     current = layers.get(index);
   }
 
+  @Override
+  public ILayer getLayer(int index) throws IllegalArgumentException {
+    if (index >= numPhoto() || index < 0) {
+      throw new IllegalArgumentException("The index is invalid");
+    }
+    return layers.get(index);
+  }
+
   @Override
   public void upload(ImageRep photo) throws IllegalStateException {
     if (current == null) {
       throw new IllegalStateException("Please choose a layer as current to upload to.");
     }
+    History.State before = capture();
     current.addImage(photo);
+    record(before);
   }
 
   @Override
@@ -385,5 +436,161 @@ public class LayerModel implements ILayerModel<ImageRep> {
     }
     return this.current.getName();
   }
-}
 
+  @Override
+  public void undo() throws IllegalStateException {
+    if (!history.canUndo()) {
+      throw new IllegalStateException("There is nothing to undo.");
+    }
+    restore(history.undo(capture()));
+    history.trim(layers);
+  }
+
+  @Override
+  public void redo() throws IllegalStateException {
+    if (!history.canRedo()) {
+      throw new IllegalStateException("There is nothing to redo.");
+    }
+    restore(history.redo(capture()));
+    history.trim(layers);
+  }
+
+  @Override
+  public boolean canUndo() {
+    return history.canUndo();
+  }
+
+  @Override
+  public boolean canRedo() {
+    return history.canRedo();
+  }
+
+  @Override
+  public void setHistoryLimit(long bytes) throws IllegalArgumentException {
+    history.setLimit(bytes, layers);
+  }
+
+  /**
+   * Captures the layers of the model and which one is current, for the history.
+   *
+   * @return the state of the model
+   */
+  private History.State capture() {
+    List<Layer> copies = new ArrayList<Layer>();
+    for (ILayer layer : layers) {
+      copies.add(((Layer) layer).snapshot());
+    }
+    return new History.State(copies, layers.indexOf(current));
+  }
+
+  /**
+   * Records a change in the history, given the state of the model before it.
+   *
+   * @param before the state before the change
+   */
+  private void record(History.State before) {
+    history.record(before, layers);
+  }
+
+  /**
+   * Puts the model back into a state of its history. The layers of the state are copied again, so
+   * the state itself is not changed by later edits. The layers the model had before, and the
+   * state, are disposed afterwards, since neither is kept.
+   *
+   * @param state the state to go to
+   */
+  private void restore(History.State state) {
+    List<ILayer> old = layers;
+    layers = new ArrayList<ILayer>();
+    for (Layer layer : state.layers) {
+      Layer copy = layer.snapshot();
+      copy.setColorFusion(fusion);
+      layers.add(copy);
+    }
+    current = state.current < 0 ? null : layers.get(state.current);
+    for (ILayer layer : old) {
+      ((Layer) layer).dispose();
+    }
+    state.dispose();
+  }
+
+  /**
+   * Builds the kernel of the blur filter.
+   *
+   * @return the compiled blur kernel
+   */
+  private static Kernel blurKernel() {
+    double[] row1 = new double[3];
+    row1[0] = (1 / 16.0);
+    row1[1] = (1 / 8.0);
+    row1[2] = (1 / 16.0);
+
+    double[] row2 = new double[3];
+    row2[0] = (1 / 8.0);
+    row2[1] = (1 / 4.0);
+    row2[2] = (1 / 8.0);
+
+    double[] row3 = new double[3];
+    row3[0] = (1 / 16.0);
+    row3[1] = (1 / 8.0);
+    row3[2] = (1 / 16.0);
+
+    double[][] kernel = new double[3][3];
+    kernel[0] = row1;
+    kernel[1] = row2;
+    kernel[2] = row3;
+
+    return Kernel.of(kernel).withFixedPoint();
+  }
+
+  /**
+   * Builds the kernel of the sharpen filter.
+   *
+   * @return the compiled sharpen kernel
+   */
+  private static Kernel sharpenKernel() {
+    double[] row1 = new double[5];
+    row1[0] = (-1 / 8.0);
+    row1[1] = (-1 / 8.0);
+    row1[2] = (-1 / 8.0);
+    row1[3] = (-1 / 8.0);
+    row1[4] = (-1 / 8.0);
+
+    double[] row2 = new double[5];
+    row2[0] = (-1 / 8.0);
+    row2[1] = (1 / 4.0);
+    row2[2] = (1 / 4.0);
+    row2[3] = (1 / 4.0);
+    row2[4] = (-1 / 8.0);
+
+    double[] row3 = new double[5];
+    row3[0] = (-1 / 8.0);
+    row3[1] = (1 / 4.0);
+    row3[2] = 1.0;
+    row3[3] = (1 / 4.0);
+    row3[4] = (-1 / 8.0);
+
+    double[] row4 = new double[5];
+    row4[0] = (-1 / 8.0);
+    row4[1] = (1 / 4.0);
+    row4[2] = (1 / 4.0);
+    row4[3] = (1 / 4.0);
+    row4[4] = (-1 / 8.0);
+
+    double[] row5 = new double[5];
+    row5[0] = (-1 / 8.0);
+    row5[1] = (-1 / 8.0);
+    row5[2] = (-1 / 8.0);
+    row5[3] = (-1 / 8.0);
+    row5[4] = (-1 / 8.0);
+
+    double[][] kernel = new double[5][5];
+    kernel[0] = row1;
+    kernel[1] = row2;
+    kernel[2] = row3;
+    kernel[3] = row4;
+    kernel[4] = row5;
+
+    return Kernel.of(kernel).withFixedPoint();
+  }
+}
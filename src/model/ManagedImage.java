@@ -0,0 +1,83 @@
+package model;
+
+import java.util.List;
+
+/**
+ * This class represents an image whose pixels are kept outside of the Java heap, off the heap or
+ * on the disk, and whose storage is freed explicitly instead of by the garbage collector. Layers
+ * call retain when they take such an image and release when they drop it, and the storage is freed
+ * when the last holder releases it. Reading an image after that throws an IllegalStateException.
+ */
+public abstract class ManagedImage implements ImageRep {
+
+  /**
+   * Gives the packed ARGB value of one pixel.
+   *
+   * @param row    the row of the pixel
+   * @param column the column of the pixel
+   * @return the packed ARGB integer of the pixel
+   * @throws IllegalArgumentException if the position is outside of the image
+   * @throws IllegalStateException    if the image has been freed
+   */
+  public abstract int getPackedAt(int row, int column) throws IllegalArgumentException,
+      IllegalStateException;
+
+  /**
+   * Tells whether the storage of the image has been freed.
+   *
+   * @return true if the image can no longer be read
+   */
+  public abstract boolean isReleased();
+
+  /**
+   * Records that one more holder keeps this image.
+   *
+   * @throws IllegalStateException if the image has been freed
+   */
+  abstract void retain() throws IllegalStateException;
+
+  /**
+   * Records that a holder no longer keeps this image. When no holder is left, the storage of the
+   * image is freed.
+   */
+  abstract void release();
+
+  /**
+   * Frees the storage of the image unless a layer holds it. This is for an image that was built
+   * but never given to a layer, such as one read for an import that failed. An image that a layer
+   * holds is left as it is, and one that was already freed is ignored.
+   */
+  public final void discard() {
+    if (!isReleased()) {
+      retain();
+      release();
+    }
+  }
+
+  /**
+   * Writes a rectangle of pixels from the given array, which holds them as packed RGB or ARGB
+   * integers. The alpha bits are ignored. This is only used while the image is being built.
+   *
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows to write
+   * @param width  the number of columns to write
+   * @param src    the array the pixels are read from
+   * @param offset the index in the array of the first pixel
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the image, or the array is null
+   *                                  or too small
+   */
+  abstract void setRGB(int row, int column, int height, int width, int[] src, int offset, int scan)
+      throws IllegalArgumentException;
+
+  /**
+   * Applies several color matrices one after another in a single pass over the image, like
+   * PackedImage.colorChain.
+   *
+   * @param matrices the 3x3 color matrices, in the order they are applied
+   * @return the image once all the colors are applied
+   * @throws IllegalArgumentException if there are no matrices or any of them is not a 3x3
+   */
+  abstract ManagedImage colorChain(List<double[][]> matrices) throws IllegalArgumentException;
+}
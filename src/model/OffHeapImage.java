@@ -0,0 +1,435 @@
+package model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * This class is an image whose pixels live outside of the Java heap, in direct byte buffers, so
+ * very large images do not count against the heap and are never moved by the garbage collector.
+ * The pixels are packed ARGB integers like in a PackedImage, stored row after row in chunks of
+ * whole rows (a direct buffer can not be larger than 2GB).
+ *
+ * <p>Filters, colors and tone adjustments run over the image in bands of rows: each band is read
+ * into a small packed image on the heap, together with the rows around it that a kernel reaches
+ * (taken through the edge mode at the top and bottom of the image), processed with the same code
+ * as a PackedImage, and its rows are written into a new off-heap image. The result is exactly the
+ * same as for a PackedImage, and the heap only ever holds a few bands at once.
+ *
+ * <p>The memory is freed as soon as the last layer that holds the image lets go of it, instead of
+ * whenever the garbage collector gets to it. Every read and write of the buffers holds the read
+ * half of a lock and freeing takes the write half, so the memory is never freed while a thread is
+ * still using it.
+ */
+public final class OffHeapImage extends ManagedImage {
+
+  /**
+   * The largest number of pixels in one chunk of the image.
+   */
+  private static final int CHUNK_PIXELS = 1 << 26;
+
+  /**
+   * The number of pixels in a band that is processed on the heap at once.
+   */
+  private static final int BAND_PIXELS = 1 << 20;
+
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  private static volatile long threshold = Long.getLong("photoeditor.offheap.pixels", 1L << 26);
+
+  static {
+    // the memory of a direct buffer can be freed right away through the cleaner, where available
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final int height;
+  private final int width;
+  private final int rowsPerChunk;
+  private final AtomicInteger references = new AtomicInteger();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile ByteBuffer[] chunks;
+  private volatile IntBuffer[] pixels;
+
+  /**
+   * Constructs a black image of the given size, outside of the heap.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @throws IllegalArgumentException if either dimension is negative, or a single row is too large
+   *                                  for a direct buffer
+   */
+  public OffHeapImage(int height, int width) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+    if (width > Integer.MAX_VALUE / 4) {
+      throw new IllegalArgumentException("The image is too wide to be kept off the heap.");
+    }
+    this.height = height;
+    this.width = width;
+    // a chunk is a single row when a row alone has more than CHUNK_PIXELS pixels, which still fits
+    // in a direct buffer since the width was checked above
+    this.rowsPerChunk = Math.max(1, CHUNK_PIXELS / Math.max(1, width));
+
+    int count = height == 0 ? 0 : (height - 1) / rowsPerChunk + 1;
+    this.chunks = new ByteBuffer[count];
+    this.pixels = new IntBuffer[count];
+    int[] black = new int[width];
+    Arrays.fill(black, 0xFF000000);
+    for (int c = 0; c < count; c++) {
+      int rows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+      long bytes = Math.multiplyExact(Math.multiplyExact((long) rows, width), 4L);
+      chunks[c] = ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(ByteOrder.nativeOrder());
+      pixels[c] = chunks[c].asIntBuffer();
+      for (int i = 0; i < rows; i++) {
+        pixels[c].put(i * width, black);
+      }
+    }
+  }
+
+  /**
+   * Creates an off-heap image with the same pixels as the given ImageRep. The pixels are copied a
+   * band of rows at a time, so the image does not have to fit on the heap twice.
+   *
+   * @param image the image to be copied
+   * @return the off-heap image
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static OffHeapImage of(ImageRep image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("The image cannot be null.");
+    }
+    if (image instanceof OffHeapImage) {
+      return (OffHeapImage) image;
+    }
+    OffHeapImage copy = new OffHeapImage(image.getHeight(), image.getWidth());
+    int step = Math.max(1, BAND_PIXELS / Math.max(1, copy.width));
+    int[] band = new int[Math.min(step, copy.height) * copy.width];
+    for (int first = 0; first < copy.height; first += step) {
+      int rows = Math.min(step, copy.height - first);
+      image.getRGB(first, 0, rows, copy.width, band, 0, copy.width);
+      copy.setRGB(first, 0, rows, copy.width, band, 0, copy.width);
+    }
+    return copy;
+  }
+
+  /**
+   * Sets the number of pixels from which images read from files are kept off the heap. The
+   * default is 64 million pixels, or the value of the system property
+   * "photoeditor.offheap.pixels".
+   *
+   * @param pixels the number of pixels
+   * @throws IllegalArgumentException if the number is negative
+   */
+  public static void setThreshold(long pixels) throws IllegalArgumentException {
+    if (pixels < 0) {
+      throw new IllegalArgumentException("The threshold cannot be negative.");
+    }
+    threshold = pixels;
+  }
+
+  /**
+   * Gives the number of pixels from which images read from files are kept off the heap.
+   *
+   * @return the number of pixels
+   */
+  public static long getThreshold() {
+    return threshold;
+  }
+
+  @Override
+  public int getPackedAt(int row, int column) throws IllegalArgumentException,
+      IllegalStateException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      throw new IllegalArgumentException("The position is outside of the image.");
+    }
+    Lock reading = lock.readLock();
+    reading.lock();
+    try {
+      return chunks()[row / rowsPerChunk].get((row % rowsPerChunk) * width + column);
+    } finally {
+      reading.unlock();
+    }
+  }
+
+  @Override
+  public boolean isReleased() {
+    return pixels == null;
+  }
+
+  @Override
+  void retain() throws IllegalStateException {
+    chunks();
+    references.incrementAndGet();
+  }
+
+  @Override
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      ByteBuffer[] buffers;
+      Lock writing = lock.writeLock();
+      writing.lock();
+      try {
+        buffers = chunks;
+        pixels = null;
+        chunks = null;
+      } finally {
+        writing.unlock();
+      }
+      // no thread can still be reading or writing the buffers once the write lock was taken
+      if (buffers != null && INVOKE_CLEANER != null) {
+        for (ByteBuffer buffer : buffers) {
+          try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+          } catch (ReflectiveOperationException | RuntimeException e) {
+            // the buffer is freed by the garbage collector instead
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  void setRGB(int row, int column, int height, int width, int[] src, int offset, int scan)
+      throws IllegalArgumentException {
+    PackedImage.checkRegion(this, row, column, height, width, src, offset, scan);
+    int[] line = new int[width];
+    // writers share the read half too, since they only need the buffers to stay allocated
+    Lock using = lock.readLock();
+    using.lock();
+    try {
+      IntBuffer[] buffers = chunks();
+      for (int i = 0; i < height; i++) {
+        int from = offset + i * scan;
+        for (int j = 0; j < width; j++) {
+          line[j] = 0xFF000000 | src[from + j];
+        }
+        int r = row + i;
+        buffers[r / rowsPerChunk].put((r % rowsPerChunk) * this.width + column, line);
+      }
+    } finally {
+      using.unlock();
+    }
+  }
+
+  @Override
+  public void applyFilterToPixel(double[][] kernel, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    Kernel compiled = Kernel.of(kernel);
+    checkTarget(targX, targY, arr);
+    int radius = compiled.radius();
+    PackedImage band = band(targX - radius, 2 * radius + 1, EdgeMode.ZERO);
+    IPixel[][] target = new IPixel[2 * radius + 1][];
+    target[radius] = arr[targX];
+    band.applyFilterToPixel(compiled, radius, targY, target);
+  }
+
+  @Override
+  public void applyColorToPixel(double[][] matrix, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    checkTarget(targX, targY, arr);
+    IPixel[][] target = new IPixel[][] {arr[targX]};
+    band(targX, 1, EdgeMode.ZERO).applyColorToPixel(matrix, 0, targY, target);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public IPixel getPixelAt(int row, int column) throws IllegalStateException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      return new Pixel(0, 0, 0);
+    }
+    int value = getPackedAt(row, column);
+    return new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException, IllegalStateException {
+    PackedImage.checkRegion(this, row, column, height, width, dest, offset, scan);
+    Lock reading = lock.readLock();
+    reading.lock();
+    try {
+      IntBuffer[] buffers = chunks();
+      for (int i = 0; i < height; i++) {
+        int r = row + i;
+        buffers[r / rowsPerChunk].get((r % rowsPerChunk) * this.width + column, dest,
+            offset + i * scan, width);
+      }
+    } finally {
+      reading.unlock();
+    }
+  }
+
+  /**
+   * Generates a 2D array of the pixels of the image. This copies every pixel onto the heap, so it
+   * should be avoided for the large images this class is meant for.
+   *
+   * @return the 2D array of pixels
+   */
+  @Override
+  public IPixel[][] genArray() {
+    IPixel[][] dest = new Pixel[height][width];
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRGB(i, 0, 1, width, row, 0, width);
+      for (int j = 0; j < width; j++) {
+        dest[i][j] = new Pixel((row[j] >> 16) & 0xFF, (row[j] >> 8) & 0xFF, row[j] & 0xFF);
+      }
+    }
+    return dest;
+  }
+
+  @Override
+  public ImageRep filterPhoto(double[][] kernel) throws IllegalArgumentException {
+    return filterPhoto(Kernel.of(kernel), EdgeMode.ZERO);
+  }
+
+  @Override
+  public OffHeapImage filterPhoto(Kernel kernel, EdgeMode edges)
+      throws IllegalArgumentException {
+    if (kernel == null || edges == null) {
+      throw new IllegalArgumentException("The kernel and edge mode cannot be null.");
+    }
+    return map(kernel.radius(), edges, band -> band.filterPhoto(kernel, edges));
+  }
+
+  @Override
+  public OffHeapImage colorPhoto(double[][] matrix) throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    return map(0, EdgeMode.ZERO, band -> band.colorPhoto(matrix));
+  }
+
+  @Override
+  public OffHeapImage adjustPhoto(ToneTable table) throws IllegalArgumentException {
+    if (table == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+    return map(0, EdgeMode.ZERO, band -> band.adjustPhoto(table));
+  }
+
+  @Override
+  OffHeapImage colorChain(List<double[][]> matrices) throws IllegalArgumentException {
+    if (matrices == null || matrices.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one matrix.");
+    }
+    for (double[][] matrix : matrices) {
+      PackedImage.checkMatrix(matrix);
+    }
+    return map(0, EdgeMode.ZERO, band -> band.colorChain(matrices));
+  }
+
+  /**
+   * Runs an operation over the image one band of rows at a time and collects the rows into a new
+   * off-heap image. Bands are processed in parallel.
+   *
+   * @param halo      how many rows above and below a band the operation reads
+   * @param edges     what is read for rows above and below the image
+   * @param operation the operation, run on a packed image of the band and its halo rows
+   * @return the new image
+   */
+  private OffHeapImage map(int halo, EdgeMode edges, Function<PackedImage, ImageRep> operation) {
+    chunks();
+    OffHeapImage result = new OffHeapImage(height, width);
+    int step = Math.max(1, BAND_PIXELS / Math.max(1, width));
+    WorkerPool.forEachBand(height, width, (from, to) -> {
+      int[] rows = new int[Math.min(step, to - from) * width];
+      for (int first = from; first < to; first += step) {
+        int count = Math.min(step, to - first);
+        ImageRep done = operation.apply(band(first - halo, count + 2 * halo, edges));
+        done.getRGB(halo, 0, count, width, rows, 0, width);
+        result.setRGB(first, 0, count, width, rows, 0, width);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Reads rows of the image into a packed image on the heap. Rows above and below the image are
+   * read through the edge mode.
+   *
+   * @param first the first row, which may be above the image
+   * @param count the number of rows
+   * @param edges what is read for rows outside of the image
+   * @return the packed image of the rows
+   */
+  private PackedImage band(int first, int count, EdgeMode edges) {
+    int[] data = new int[count * width];
+    for (int i = 0; i < count; i++) {
+      int source = edges.map(first + i, height);
+      if (source < 0) {
+        Arrays.fill(data, i * width, (i + 1) * width, 0xFF000000);
+      } else {
+        getRGB(source, 0, 1, width, data, i * width, width);
+      }
+    }
+    return new PackedImage(count, width, data);
+  }
+
+  /**
+   * Gives the buffers of the image.
+   *
+   * @return the buffers that hold the pixels
+   * @throws IllegalStateException if the image has been freed
+   */
+  private IntBuffer[] chunks() throws IllegalStateException {
+    IntBuffer[] buffers = pixels;
+    if (buffers == null) {
+      throw new IllegalStateException("The image has been released.");
+    }
+    return buffers;
+  }
+
+  /**
+   * Checks that the target position is inside both this image and the destination array.
+   *
+   * @param targX the row of the pixel
+   * @param targY the column of the pixel
+   * @param arr   the destination array
+   * @throws IllegalArgumentException if the position or the array is invalid
+   */
+  private void checkTarget(int targX, int targY, IPixel[][] arr) throws IllegalArgumentException {
+    if (targX < 0 || targX >= height) {
+      throw new IllegalArgumentException("TargX is invalid");
+    }
+
+    if (targY < 0 || targY >= width) {
+      throw new IllegalArgumentException("TargY is invalid");
+    }
+
+    if (arr == null || arr.length <= targX || arr[targX] == null || arr[targX].length <= targY) {
+      throw new IllegalArgumentException("The destination array is invalid.");
+    }
+  }
+}
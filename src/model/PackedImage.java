@@ -0,0 +1,403 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a way to represent an image whose pixels are stored in a single packed array of
+ * integers. Each integer holds one pixel in the ARGB format (8 bits each for alpha, red, green and
+ * blue), and the pixels are laid out row after row. Compared to a 2D array of pixel objects this
+ * keeps the whole image in one contiguous block, so operations on the image never have to create a
+ * Pixel for every position.
+ */
+public class PackedImage implements ImageRep {
+  private final int height;
+  private final int width;
+  private final int[] argb;
+
+  /**
+   * Constructs a black image of the given size.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @throws IllegalArgumentException if either dimension is negative
+   */
+  public PackedImage(int height, int width) throws IllegalArgumentException {
+    this(height, width, blank(height, width));
+  }
+
+  /**
+   * Constructs an image of the given size that is backed by the given array. The array is used as
+   * is (it is not copied), so the caller should not change it after handing it to the image.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @param argb   the pixels of the image in row-major order, packed as ARGB integers
+   * @throws IllegalArgumentException if the array is null or does not match the dimensions
+   */
+  public PackedImage(int height, int width, int[] argb) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+
+    if (argb == null) {
+      throw new IllegalArgumentException("The pixel array cannot be null.");
+    }
+
+    if ((long) height * width != argb.length) {
+      throw new IllegalArgumentException("The pixel array does not match the dimensions.");
+    }
+
+    this.height = height;
+    this.width = width;
+    this.argb = argb;
+  }
+
+  /**
+   * Creates a packed image that holds the same pixels as the given ImageRep. Packed images are
+   * returned as they are, since they can not be changed after being made.
+   *
+   * @param image the image to be converted
+   * @return the PackedImage with the pixels of the given image
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static PackedImage of(ImageRep image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("The image cannot be null.");
+    }
+
+    if (image instanceof PackedImage) {
+      return (PackedImage) image;
+    }
+
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int[] data = new int[height * width];
+    image.getRGB(0, 0, height, width, data, 0, width);
+    return new PackedImage(height, width, data);
+  }
+
+  /**
+   * Packs the given color values into one opaque ARGB integer.
+   *
+   * @param red   the red value between 0 and 255
+   * @param green the green value between 0 and 255
+   * @param blue  the blue value between 0 and 255
+   * @return the packed ARGB integer
+   */
+  public static int pack(int red, int green, int blue) {
+    return 0xFF000000 | (red << 16) | (green << 8) | blue;
+  }
+
+  /**
+   * Gives the packed ARGB value of the pixel at the given position. Unlike getPixelAt, this does
+   * not create a new object for the pixel.
+   *
+   * @param row    the row of the pixel
+   * @param column the column of the pixel
+   * @return the packed ARGB integer of the pixel
+   * @throws IllegalArgumentException if the position is outside of the image
+   */
+  public int getPackedAt(int row, int column) throws IllegalArgumentException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      throw new IllegalArgumentException("The position is outside of the image.");
+    }
+    return argb[row * width + column];
+  }
+
+  /**
+   * Gives the array that backs this image. The array is shared, not copied, so it must only be
+   * read. This lets a caller, such as the display of the view, use the pixels in place instead of
+   * copying the whole image.
+   *
+   * @return the packed ARGB pixels of the image in row-major order
+   */
+  public int[] data() {
+    return argb;
+  }
+
+  /**
+   * Makes an array of the given size filled with opaque black pixels.
+   *
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @return the array of black pixels
+   */
+  private static int[] blank(int height, int width) {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+    int[] data = new int[height * width];
+    Arrays.fill(data, 0xFF000000);
+    return data;
+  }
+
+  @Override
+  public void applyFilterToPixel(double[][] kernel, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    applyFilterToPixel(Kernel.of(kernel), targX, targY, arr);
+  }
+
+  /**
+   * Applies a compiled kernel to one pixel and writes the result into the given array. The kernel
+   * was checked when it was made, so filtering many pixels with it only checks their positions.
+   *
+   * @param kernel the compiled kernel
+   * @param targX  the row of the pixel
+   * @param targY  the column of the pixel
+   * @param arr    the array the filtered pixel is written into
+   * @throws IllegalArgumentException if the kernel is null or the position is not in the array
+   */
+  public void applyFilterToPixel(Kernel kernel, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    if (kernel == null) {
+      throw new IllegalArgumentException("The kernel cannot be null.");
+    }
+    checkTarget(targX, targY, arr);
+
+    int value = filterAt(kernel, targX, targY);
+    arr[targX][targY] = new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+  }
+
+  @Override
+  public void applyColorToPixel(double[][] matrix, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    checkMatrix(matrix);
+    checkTarget(targX, targY, arr);
+
+    int value = colorOf(matrix, argb[targX * width + targY]);
+    arr[targX][targY] = new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public IPixel getPixelAt(int row, int column) throws IllegalArgumentException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      return new Pixel(0, 0, 0);
+    }
+    int value = argb[row * width + column];
+    return new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException {
+    checkRegion(this, row, column, height, width, dest, offset, scan);
+
+    for (int i = 0; i < height; i++) {
+      System.arraycopy(argb, (row + i) * this.width + column, dest, offset + i * scan, width);
+    }
+  }
+
+  /**
+   * Checks that a rectangle lies inside the image and fits in the given array, for the bulk pixel
+   * methods.
+   *
+   * @param image  the image the rectangle is in
+   * @param row    the first row of the rectangle
+   * @param column the first column of the rectangle
+   * @param height the number of rows of the rectangle
+   * @param width  the number of columns of the rectangle
+   * @param array  the array the pixels are copied to or from
+   * @param offset the index in the array of the first pixel
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalArgumentException if the rectangle is not inside the image, or the array is null
+   *                                  or too small
+   */
+  static void checkRegion(ImageRep image, int row, int column, int height, int width, int[] array,
+      int offset, int scan) throws IllegalArgumentException {
+    if (array == null) {
+      throw new IllegalArgumentException("The array cannot be null.");
+    }
+
+    if (row < 0 || column < 0 || height < 0 || width < 0
+        || row + height > image.getHeight() || column + width > image.getWidth()) {
+      throw new IllegalArgumentException("The rectangle is outside of the image.");
+    }
+
+    if (height > 0 && width > 0 && (offset < 0 || scan < width
+        || offset + (long) (height - 1) * scan + width > array.length)) {
+      throw new IllegalArgumentException("The array is too small for the rectangle.");
+    }
+  }
+
+  @Override
+  public IPixel[][] genArray() {
+    IPixel[][] dest = new Pixel[height][width];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int value = argb[i * width + j];
+        dest[i][j] = new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+      }
+    }
+    return dest;
+  }
+
+  @Override
+  public ImageRep filterPhoto(double[][] kernel) throws IllegalArgumentException {
+    return filterPhoto(Kernel.of(kernel), EdgeMode.ZERO);
+  }
+
+  @Override
+  public ImageRep filterPhoto(Kernel kernel, EdgeMode edges) throws IllegalArgumentException {
+    // filtering walks each channel separately, which is much faster on planes
+    return PlanarImage.of(this).filterPhoto(kernel, edges).toPacked();
+  }
+
+  @Override
+  public ImageRep colorPhoto(double[][] matrix) throws IllegalArgumentException {
+    return new PackedImage(height, width, ColorTransform.apply(argb, height, width, matrix));
+  }
+
+  @Override
+  public ImageRep adjustPhoto(ToneTable table) throws IllegalArgumentException {
+    if (table == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+    return new PackedImage(height, width, table.apply(argb, height, width));
+  }
+
+  /**
+   * Applies several color matrices one after another in a single pass over the image. The result
+   * is the same as calling colorPhoto with each matrix in turn.
+   *
+   * @param matrices the 3x3 color matrices, in the order they are applied
+   * @return the ImageRep once all the colors are applied
+   * @throws IllegalArgumentException if there are no matrices or any of them is not a 3x3
+   */
+  PackedImage colorChain(List<double[][]> matrices) throws IllegalArgumentException {
+    return new PackedImage(height, width, ColorTransform.applyChain(argb, height, width, matrices));
+  }
+
+  /**
+   * Computes the filtered value of one pixel. Positions of the kernel that fall outside of the
+   * image count as black.
+   *
+   * @param kernel the kernel of the filter
+   * @param row    the row of the pixel
+   * @param column the column of the pixel
+   * @return the packed ARGB value of the filtered pixel
+   */
+  private int filterAt(Kernel kernel, int row, int column) {
+    int[] rows = kernel.tapRows();
+    int[] columns = kernel.tapColumns();
+    double[] weights = kernel.tapWeights();
+    double newRed = 0;
+    double newGreen = 0;
+    double newBlue = 0;
+
+    for (int t = 0; t < weights.length; t++) {
+      int r = row + rows[t];
+      int c = column + columns[t];
+      if (r < 0 || r >= height || c < 0 || c >= width) {
+        continue;
+      }
+      int value = argb[r * width + c];
+      newRed += weights[t] * ((value >> 16) & 0xFF);
+      newGreen += weights[t] * ((value >> 8) & 0xFF);
+      newBlue += weights[t] * (value & 0xFF);
+    }
+    return pack(clamp(newRed), clamp(newGreen), clamp(newBlue));
+  }
+
+  /**
+   * Computes the color transformed value of one packed pixel.
+   *
+   * @param matrix the 3x3 color matrix
+   * @param value  the packed ARGB pixel
+   * @return the packed ARGB value of the transformed pixel
+   */
+  private static int colorOf(double[][] matrix, int value) {
+    int red = (value >> 16) & 0xFF;
+    int green = (value >> 8) & 0xFF;
+    int blue = value & 0xFF;
+
+    double newRed = matrix[0][0] * red + matrix[0][1] * green + matrix[0][2] * blue;
+    double newGreen = matrix[1][0] * red + matrix[1][1] * green + matrix[1][2] * blue;
+    double newBlue = matrix[2][0] * red + matrix[2][1] * green + matrix[2][2] * blue;
+
+    return pack(clamp(newRed), clamp(newGreen), clamp(newBlue));
+  }
+
+  /**
+   * Clamps a color value between 0 and 255 and rounds it to the nearest integer, the same way the
+   * Image class does.
+   *
+   * @param colorVal the color value to be processed
+   * @return the clamped and rounded color value
+   */
+  static int clamp(double colorVal) {
+    if (colorVal < 0) {
+      return 0;
+    } else if (colorVal > 255) {
+      return 255;
+    } else {
+      return (int) Math.round(colorVal);
+    }
+  }
+
+  /**
+   * Checks that the kernel is a square with an odd size.
+   *
+   * @param kernel the kernel to be checked
+   * @throws IllegalArgumentException if the kernel is not well-formed
+   */
+  static void checkKernel(double[][] kernel) throws IllegalArgumentException {
+    if (kernel == null || kernel.length % 2 != 1) {
+      throw new IllegalArgumentException("The kernel is not well-formed");
+    }
+    for (double[] row : kernel) {
+      if (row == null || row.length != kernel.length) {
+        throw new IllegalArgumentException("The kernel is not well-formed");
+      }
+    }
+  }
+
+  /**
+   * Checks that the matrix is a 3x3 matrix.
+   *
+   * @param matrix the matrix to be checked
+   * @throws IllegalArgumentException if the matrix is not a 3x3
+   */
+  static void checkMatrix(double[][] matrix) throws IllegalArgumentException {
+    if (matrix == null || matrix.length != 3) {
+      throw new IllegalArgumentException("The matrix is invalid.");
+    }
+    for (double[] row : matrix) {
+      if (row == null || row.length != 3) {
+        throw new IllegalArgumentException("The matrix is invalid.");
+      }
+    }
+  }
+
+  /**
+   * Checks that the target position is inside both this image and the destination array.
+   *
+   * @param targX the row of the pixel
+   * @param targY the column of the pixel
+   * @param arr   the destination array
+   * @throws IllegalArgumentException if the position or the array is invalid
+   */
+  private void checkTarget(int targX, int targY, IPixel[][] arr) throws IllegalArgumentException {
+    if (targX < 0 || targX >= height) {
+      throw new IllegalArgumentException("TargX is invalid");
+    }
+
+    if (targY < 0 || targY >= width) {
+      throw new IllegalArgumentException("TargY is invalid");
+    }
+
+    if (arr == null || arr.length <= targX || arr[targX] == null || arr[targX].length <= targY) {
+      throw new IllegalArgumentException("The destination array is invalid.");
+    }
+  }
+}
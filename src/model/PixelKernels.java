@@ -0,0 +1,76 @@
+package model;
+
+/**
+ * This interface represents the innermost loops of the filtering and coloring operations. Every
+ * loop works on a contiguous range of primitive values, so an implementation can process several
+ * values per instruction. All implementations must give the same results as the scalar one.
+ */
+interface PixelKernels {
+
+  /**
+   * Gives the name of the implementation, so it can be reported to the user.
+   *
+   * @return the name of the implementation
+   */
+  String name();
+
+  /**
+   * Adds weighted 8-bit values to an accumulator: for every x in the range, acc[x] is increased by
+   * weight times the unsigned value at plane[base + x].
+   *
+   * @param acc    the accumulator
+   * @param plane  the plane the values come from
+   * @param base   the index in the plane that lines up with index 0 of the accumulator
+   * @param from   the first index of the accumulator
+   * @param to     the index after the last index of the accumulator
+   * @param weight the weight of the values
+   */
+  void addWeighted(double[] acc, byte[] plane, int base, int from, int to, double weight);
+
+  /**
+   * Adds weighted values to an accumulator: for every x below the length, acc[x] is increased by
+   * weight times src[x].
+   *
+   * @param acc    the accumulator
+   * @param src    the values to be added
+   * @param length how many values are added
+   * @param weight the weight of the values
+   */
+  void addWeighted(double[] acc, double[] src, int length, double weight);
+
+  /**
+   * Adds weighted 8-bit values to an integer accumulator, like the floating point version. This is
+   * used by fixed-point kernels.
+   *
+   * @param acc    the accumulator
+   * @param plane  the plane the values come from
+   * @param base   the index in the plane that lines up with index 0 of the accumulator
+   * @param from   the first index of the accumulator
+   * @param to     the index after the last index of the accumulator
+   * @param weight the weight of the values
+   */
+  void addWeighted(int[] acc, byte[] plane, int base, int from, int to, int weight);
+
+  /**
+   * Adds weighted integers to an integer accumulator: for every x below the length, acc[x] is
+   * increased by weight times src[x].
+   *
+   * @param acc    the accumulator
+   * @param src    the values to be added
+   * @param length how many values are added
+   * @param weight the weight of the values
+   */
+  void addWeighted(int[] acc, int[] src, int length, int weight);
+
+  /**
+   * Applies a color matrix to a range of packed ARGB pixels. The results are clamped to 0-255,
+   * rounded, and written as opaque pixels.
+   *
+   * @param m    the nine values of the 3x3 color matrix, row by row
+   * @param src  the source pixels
+   * @param dest where the transformed pixels are written
+   * @param from the index of the first pixel
+   * @param to   the index after the last pixel
+   */
+  void applyColor(double[] m, int[] src, int[] dest, int from, int to);
+}
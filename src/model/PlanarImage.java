@@ -0,0 +1,379 @@
+package model;
+
+/**
+ * This class is a way to represent an image whose red, green, and blue values are stored in three
+ * separate planes. Each plane is a single byte array that holds one channel of every pixel, laid out
+ * row after row. Keeping the channels apart lets the filtering and coloring loops walk plain
+ * primitive arrays with a constant stride, which the JIT can turn into vector instructions.
+ */
+public class PlanarImage implements ImageRep {
+  private final int height;
+  private final int width;
+  private final byte[] red;
+  private final byte[] green;
+  private final byte[] blue;
+
+  /**
+   * Constructs an image of the given size that is backed by the given planes. The planes are used
+   * as they are (they are not copied), so the caller should not change them afterwards.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @param red    the red values of the image in row-major order
+   * @param green  the green values of the image in row-major order
+   * @param blue   the blue values of the image in row-major order
+   * @throws IllegalArgumentException if a plane is null or does not match the dimensions
+   */
+  public PlanarImage(int height, int width, byte[] red, byte[] green, byte[] blue)
+      throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+
+    if (red == null || green == null || blue == null) {
+      throw new IllegalArgumentException("The planes cannot be null.");
+    }
+
+    long size = (long) height * width;
+    if (red.length != size || green.length != size || blue.length != size) {
+      throw new IllegalArgumentException("The planes do not match the dimensions.");
+    }
+
+    this.height = height;
+    this.width = width;
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+  }
+
+  /**
+   * Creates a planar image that holds the same pixels as the given ImageRep. Planar images are
+   * returned as they are, since they can not be changed after being made.
+   *
+   * @param image the image to be converted
+   * @return the PlanarImage with the pixels of the given image
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static PlanarImage of(ImageRep image) throws IllegalArgumentException {
+    if (image instanceof PlanarImage) {
+      return (PlanarImage) image;
+    }
+    PackedImage packed = PackedImage.of(image);
+    return fromIntRaster(packed.getHeight(), packed.getWidth(), packed.data(), 0,
+        packed.getWidth());
+  }
+
+  /**
+   * Creates a planar image from pixels that are packed as RGB or ARGB integers, which is the layout
+   * of a packed image and of an integer raster (ie. TYPE_INT_RGB or TYPE_INT_ARGB). The alpha bits
+   * are ignored.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @param data   the packed pixels
+   * @param offset the index of the first pixel in the data
+   * @param scan   the distance between the starts of two rows in the data
+   * @return the PlanarImage with the given pixels
+   * @throws IllegalArgumentException if the data is null or too small for the dimensions
+   */
+  public static PlanarImage fromIntRaster(int height, int width, int[] data, int offset, int scan)
+      throws IllegalArgumentException {
+    checkRaster(height, width, data == null ? -1 : data.length, offset, scan, 1);
+
+    int size = height * width;
+    byte[] r = new byte[size];
+    byte[] g = new byte[size];
+    byte[] b = new byte[size];
+    for (int i = 0; i < height; i++) {
+      int src = offset + i * scan;
+      int dst = i * width;
+      for (int j = 0; j < width; j++) {
+        int value = data[src + j];
+        r[dst + j] = (byte) (value >> 16);
+        g[dst + j] = (byte) (value >> 8);
+        b[dst + j] = (byte) value;
+      }
+    }
+    return new PlanarImage(height, width, r, g, b);
+  }
+
+  /**
+   * Creates a planar image from pixels whose channels are interleaved as bytes, which is the layout
+   * of a byte raster. For example, a TYPE_3BYTE_BGR raster has a pixel stride of 3 with blue at
+   * offset 0, green at offset 1 and red at offset 2.
+   *
+   * @param height      the height of the image in pixels
+   * @param width       the width of the image in pixels
+   * @param data        the interleaved channel values
+   * @param offset      the index of the first byte of the first pixel in the data
+   * @param scan        the distance in bytes between the starts of two rows in the data
+   * @param pixelStride the distance in bytes between two pixels of a row
+   * @param redOffset   the position of the red value inside a pixel
+   * @param greenOffset the position of the green value inside a pixel
+   * @param blueOffset  the position of the blue value inside a pixel
+   * @return the PlanarImage with the given pixels
+   * @throws IllegalArgumentException if the data is null or too small for the dimensions
+   */
+  public static PlanarImage fromByteRaster(int height, int width, byte[] data, int offset,
+      int scan, int pixelStride, int redOffset, int greenOffset, int blueOffset)
+      throws IllegalArgumentException {
+    checkRaster(height, width, data == null ? -1 : data.length, offset, scan, pixelStride);
+
+    int size = height * width;
+    byte[] r = new byte[size];
+    byte[] g = new byte[size];
+    byte[] b = new byte[size];
+    for (int i = 0; i < height; i++) {
+      int src = offset + i * scan;
+      int dst = i * width;
+      for (int j = 0; j < width; j++) {
+        int pos = src + j * pixelStride;
+        r[dst + j] = data[pos + redOffset];
+        g[dst + j] = data[pos + greenOffset];
+        b[dst + j] = data[pos + blueOffset];
+      }
+    }
+    return new PlanarImage(height, width, r, g, b);
+  }
+
+  /**
+   * Writes the pixels of this image as opaque packed ARGB integers into the given array, in the
+   * layout of a packed image or an integer raster.
+   *
+   * @param data   the destination array
+   * @param offset the index where the first pixel is written
+   * @param scan   the distance between the starts of two rows in the destination
+   * @throws IllegalArgumentException if the destination is null or too small
+   */
+  public void toIntRaster(int[] data, int offset, int scan) throws IllegalArgumentException {
+    checkRaster(height, width, data == null ? -1 : data.length, offset, scan, 1);
+
+    for (int i = 0; i < height; i++) {
+      int src = i * width;
+      int dst = offset + i * scan;
+      for (int j = 0; j < width; j++) {
+        data[dst + j] = 0xFF000000 | ((red[src + j] & 0xFF) << 16)
+            | ((green[src + j] & 0xFF) << 8) | (blue[src + j] & 0xFF);
+      }
+    }
+  }
+
+  /**
+   * Writes the pixels of this image into the given array with the channels interleaved as bytes,
+   * in the layout of a byte raster. Bytes of a pixel other than the three channels are left as
+   * they are.
+   *
+   * @param data        the destination array
+   * @param offset      the index where the first byte of the first pixel is written
+   * @param scan        the distance in bytes between the starts of two rows in the destination
+   * @param pixelStride the distance in bytes between two pixels of a row
+   * @param redOffset   the position of the red value inside a pixel
+   * @param greenOffset the position of the green value inside a pixel
+   * @param blueOffset  the position of the blue value inside a pixel
+   * @throws IllegalArgumentException if the destination is null or too small
+   */
+  public void toByteRaster(byte[] data, int offset, int scan, int pixelStride, int redOffset,
+      int greenOffset, int blueOffset) throws IllegalArgumentException {
+    checkRaster(height, width, data == null ? -1 : data.length, offset, scan, pixelStride);
+
+    for (int i = 0; i < height; i++) {
+      int src = i * width;
+      int dst = offset + i * scan;
+      for (int j = 0; j < width; j++) {
+        int pos = dst + j * pixelStride;
+        data[pos + redOffset] = red[src + j];
+        data[pos + greenOffset] = green[src + j];
+        data[pos + blueOffset] = blue[src + j];
+      }
+    }
+  }
+
+  /**
+   * Converts this image to the packed representation.
+   *
+   * @return a PackedImage with the same pixels as this image
+   */
+  public PackedImage toPacked() {
+    int[] data = new int[height * width];
+    toIntRaster(data, 0, width);
+    return new PackedImage(height, width, data);
+  }
+
+  /**
+   * Checks that a raster with the given layout fits inside an array of the given length.
+   *
+   * @param height      the height of the image
+   * @param width       the width of the image
+   * @param length      the length of the array, or -1 if there is no array
+   * @param offset      the index of the first pixel
+   * @param scan        the distance between the starts of two rows
+   * @param pixelStride the distance between two pixels of a row
+   * @throws IllegalArgumentException if the layout does not fit in the array
+   */
+  private static void checkRaster(int height, int width, int length, int offset, int scan,
+      int pixelStride) throws IllegalArgumentException {
+    if (length < 0) {
+      throw new IllegalArgumentException("The raster data cannot be null.");
+    }
+
+    if (height < 0 || width < 0 || offset < 0 || pixelStride <= 0 || scan < width * pixelStride) {
+      throw new IllegalArgumentException("The raster layout is invalid.");
+    }
+
+    if (height > 0 && width > 0
+        && offset + (long) (height - 1) * scan + (long) width * pixelStride > length) {
+      throw new IllegalArgumentException("The raster data is too small for the image.");
+    }
+  }
+
+  @Override
+  public void applyFilterToPixel(double[][] kernel, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    Kernel compiled = Kernel.of(kernel);
+    checkTarget(targX, targY, arr);
+    int radius = compiled.radius();
+    IPixel[][] target = new IPixel[2 * radius + 1][];
+    target[radius] = new IPixel[2 * radius + 1];
+    window(targX - radius, targY - radius, 2 * radius + 1)
+        .applyFilterToPixel(compiled, radius, radius, target);
+    arr[targX][targY] = target[radius][radius];
+  }
+
+  @Override
+  public void applyColorToPixel(double[][] matrix, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    checkTarget(targX, targY, arr);
+    IPixel[][] target = new IPixel[][] {new IPixel[1]};
+    window(targX, targY, 1).applyColorToPixel(matrix, 0, 0, target);
+    arr[targX][targY] = target[0][0];
+  }
+
+  /**
+   * Reads a square of the image into a packed image, so that a single pixel can be filtered or
+   * colored without converting the whole image. Positions outside of the image are black.
+   *
+   * @param row    the first row, which may be above the image
+   * @param column the first column, which may be left of the image
+   * @param size   the number of rows and columns
+   * @return the packed image of the square
+   */
+  private PackedImage window(int row, int column, int size) {
+    int[] data = new int[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        int r = row + i;
+        int c = column + j;
+        if (r < 0 || r >= height || c < 0 || c >= width) {
+          data[i * size + j] = 0xFF000000;
+        } else {
+          int index = r * width + c;
+          data[i * size + j] = 0xFF000000 | ((red[index] & 0xFF) << 16)
+              | ((green[index] & 0xFF) << 8) | (blue[index] & 0xFF);
+        }
+      }
+    }
+    return new PackedImage(size, size, data);
+  }
+
+  /**
+   * Checks that the target position is inside both this image and the destination array.
+   *
+   * @param targX the row of the pixel
+   * @param targY the column of the pixel
+   * @param arr   the destination array
+   * @throws IllegalArgumentException if the position or the array is invalid
+   */
+  private void checkTarget(int targX, int targY, IPixel[][] arr) throws IllegalArgumentException {
+    if (targX < 0 || targX >= height) {
+      throw new IllegalArgumentException("TargX is invalid");
+    }
+
+    if (targY < 0 || targY >= width) {
+      throw new IllegalArgumentException("TargY is invalid");
+    }
+
+    if (arr == null || arr.length <= targX || arr[targX] == null || arr[targX].length <= targY) {
+      throw new IllegalArgumentException("The destination array is invalid.");
+    }
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public IPixel getPixelAt(int row, int column) {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      return new Pixel(0, 0, 0);
+    }
+    int index = row * width + column;
+    return new Pixel(red[index] & 0xFF, green[index] & 0xFF, blue[index] & 0xFF);
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException {
+    PackedImage.checkRegion(this, row, column, height, width, dest, offset, scan);
+
+    for (int i = 0; i < height; i++) {
+      int src = (row + i) * this.width + column;
+      int dst = offset + i * scan;
+      for (int j = 0; j < width; j++) {
+        dest[dst + j] = 0xFF000000 | ((red[src + j] & 0xFF) << 16)
+            | ((green[src + j] & 0xFF) << 8) | (blue[src + j] & 0xFF);
+      }
+    }
+  }
+
+  @Override
+  public IPixel[][] genArray() {
+    IPixel[][] dest = new Pixel[height][width];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int index = i * width + j;
+        dest[i][j] = new Pixel(red[index] & 0xFF, green[index] & 0xFF, blue[index] & 0xFF);
+      }
+    }
+    return dest;
+  }
+
+  @Override
+  public PlanarImage filterPhoto(double[][] kernel) throws IllegalArgumentException {
+    return filterPhoto(Kernel.of(kernel), EdgeMode.ZERO);
+  }
+
+  @Override
+  public PlanarImage filterPhoto(Kernel kernel, EdgeMode edges)
+      throws IllegalArgumentException {
+    if (kernel == null || edges == null) {
+      throw new IllegalArgumentException("The kernel and edge mode cannot be null.");
+    }
+
+    return new PlanarImage(height, width,
+        Convolution.convolve(red, height, width, kernel, edges),
+        Convolution.convolve(green, height, width, kernel, edges),
+        Convolution.convolve(blue, height, width, kernel, edges));
+  }
+
+  @Override
+  public PlanarImage colorPhoto(double[][] matrix) throws IllegalArgumentException {
+    byte[][] planes = ColorTransform.apply(red, green, blue, height, width, matrix);
+    return new PlanarImage(height, width, planes[0], planes[1], planes[2]);
+  }
+
+  @Override
+  public PlanarImage adjustPhoto(ToneTable table) throws IllegalArgumentException {
+    if (table == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+    return new PlanarImage(height, width, table.apply(red, height, width, 0),
+        table.apply(green, height, width, 1), table.apply(blue, height, width, 2));
+  }
+}
@@ -0,0 +1,67 @@
+package model;
+
+/**
+ * This class is the plain Java implementation of the innermost loops. It is always available, and
+ * its loops are simple enough for the JIT to vectorize some of them on its own.
+ */
+final class ScalarKernels implements PixelKernels {
+
+  @Override
+  public String name() {
+    return "scalar";
+  }
+
+  @Override
+  public void addWeighted(double[] acc, byte[] plane, int base, int from, int to,
+      double weight) {
+    for (int x = from; x < to; x++) {
+      acc[x] += weight * (plane[base + x] & 0xFF);
+    }
+  }
+
+  @Override
+  public void addWeighted(double[] acc, double[] src, int length, double weight) {
+    for (int x = 0; x < length; x++) {
+      acc[x] += weight * src[x];
+    }
+  }
+
+  @Override
+  public void addWeighted(int[] acc, byte[] plane, int base, int from, int to, int weight) {
+    for (int x = from; x < to; x++) {
+      acc[x] += weight * (plane[base + x] & 0xFF);
+    }
+  }
+
+  @Override
+  public void addWeighted(int[] acc, int[] src, int length, int weight) {
+    for (int x = 0; x < length; x++) {
+      acc[x] += weight * src[x];
+    }
+  }
+
+  @Override
+  public void applyColor(double[] m, int[] src, int[] dest, int from, int to) {
+    double m00 = m[0];
+    double m01 = m[1];
+    double m02 = m[2];
+    double m10 = m[3];
+    double m11 = m[4];
+    double m12 = m[5];
+    double m20 = m[6];
+    double m21 = m[7];
+    double m22 = m[8];
+
+    for (int i = from; i < to; i++) {
+      int value = src[i];
+      int red = (value >> 16) & 0xFF;
+      int green = (value >> 8) & 0xFF;
+      int blue = value & 0xFF;
+
+      dest[i] = PackedImage.pack(
+          PackedImage.clamp(m00 * red + m01 * green + m02 * blue),
+          PackedImage.clamp(m10 * red + m11 * green + m12 * blue),
+          PackedImage.clamp(m20 * red + m21 * green + m22 * blue));
+    }
+  }
+}
@@ -0,0 +1,370 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the tiles of TiledImages that are in memory, up to a fixed number of tiles
+ * shared by every image that uses the cache. When a tile is needed and the cache is full, the tile
+ * that was used least recently is dropped, and written back to the spill file of its image first
+ * if it was changed since it was loaded.
+ *
+ * <p>The lock of the cache only guards the map of tiles and the counters. Reading a tile from its
+ * spill file and writing one back happen outside of it, so threads working on different tiles, or
+ * on different images, never wait for each other's disk accesses. A tile that is being loaded sits
+ * in the map as a placeholder that other threads wait for, and a changed tile stays in the map until
+ * it has been written back, so the cache may hold a few more tiles than its capacity for a moment.
+ *
+ * <p>The cache counts hits (tiles that were already in memory), misses (tiles that had to be read
+ * from the disk or created) and evictions (tiles that were dropped to make room).
+ */
+public final class TileCache {
+
+  private static final TileCache SHARED = new TileCache(
+      Integer.getInteger("photoeditor.tiles.cache", 1024));
+
+  private final Map<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true);
+  private int capacity;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * This represents one tile in memory: its pixels, whether they were changed since it was loaded,
+   * and how many threads are using it. The pixels are null while the tile is being loaded. The
+   * pixels and the dirty flag are guarded by the tile itself, the rest by the cache.
+   */
+  private static final class Tile {
+    private final TiledImage owner;
+    private final int index;
+    private final Long key;
+    private final AtomicInteger users = new AtomicInteger();
+    private int[] pixels;
+    private boolean dirty;
+    private boolean storing;
+
+    private Tile(TiledImage owner, int index, Long key) {
+      this.owner = owner;
+      this.index = index;
+      this.key = key;
+    }
+
+    private synchronized boolean isDirty() {
+      return dirty;
+    }
+  }
+
+  /**
+   * Creates a cache that holds up to the given number of tiles.
+   *
+   * @param capacity the number of tiles
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public TileCache(int capacity) throws IllegalArgumentException {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Gives the cache that TiledImages use unless they are given another one. It holds 1024 tiles
+   * (256 MB), or the number in the system property "photoeditor.tiles.cache".
+   *
+   * @return the shared cache
+   */
+  public static TileCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Sets how many tiles the cache holds, and drops the least recently used tiles until it fits.
+   *
+   * @param capacity the number of tiles
+   * @throws IllegalArgumentException if the number is less than 1
+   * @throws UncheckedIOException     if a changed tile can not be written back
+   */
+  public void setCapacity(int capacity) throws IllegalArgumentException, UncheckedIOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The cache must hold at least one tile.");
+    }
+    synchronized (this) {
+      this.capacity = capacity;
+    }
+    evict();
+  }
+
+  /**
+   * Gives how many tiles the cache holds at most.
+   *
+   * @return the number of tiles
+   */
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gives how many times a tile was found in memory.
+   *
+   * @return the number of hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gives how many times a tile had to be loaded or created.
+   *
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gives how many tiles were dropped to make room for others.
+   *
+   * @return the number of evictions
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Sets the hit, miss and eviction counters back to zero.
+   */
+  public synchronized void resetCounters() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  /**
+   * Copies a rectangle of pixels out of one tile of an image. The tile is loaded if it is not in
+   * memory.
+   *
+   * @param owner  the image
+   * @param index  the index of the tile in the image
+   * @param row    the first row of the rectangle, inside the tile
+   * @param column the first column of the rectangle, inside the tile
+   * @param height the number of rows
+   * @param width  the number of columns
+   * @param dest   the array the pixels are copied into
+   * @param offset the index in the array of the first pixel
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalStateException if the image has been freed
+   * @throws UncheckedIOException  if a tile can not be read or written back
+   */
+  void read(TiledImage owner, int index, int row, int column, int height, int width,
+      int[] dest, int offset, int scan) throws IllegalStateException, UncheckedIOException {
+    Tile tile = tile(owner, index, true);
+    try {
+      synchronized (tile) {
+        for (int i = 0; i < height; i++) {
+          System.arraycopy(tile.pixels, (row + i) * TiledImage.TILE + column, dest,
+              offset + i * scan, width);
+        }
+      }
+    } finally {
+      tile.users.decrementAndGet();
+    }
+  }
+
+  /**
+   * Copies a rectangle of pixels into one tile of an image, forcing them opaque. The tile is loaded
+   * first if it is not in memory, unless the rectangle covers all of it.
+   *
+   * @param owner  the image
+   * @param index  the index of the tile in the image
+   * @param row    the first row of the rectangle, inside the tile
+   * @param column the first column of the rectangle, inside the tile
+   * @param height the number of rows
+   * @param width  the number of columns
+   * @param src    the array the pixels are copied from
+   * @param offset the index in the array of the first pixel
+   * @param scan   the distance in the array between the starts of two rows
+   * @throws IllegalStateException if the image has been freed
+   * @throws UncheckedIOException  if a tile can not be read or written back
+   */
+  void write(TiledImage owner, int index, int row, int column, int height, int width,
+      int[] src, int offset, int scan) throws IllegalStateException, UncheckedIOException {
+    boolean whole = height == TiledImage.TILE && width == TiledImage.TILE;
+    Tile tile = tile(owner, index, !whole);
+    try {
+      synchronized (tile) {
+        for (int i = 0; i < height; i++) {
+          int from = offset + i * scan;
+          int to = (row + i) * TiledImage.TILE + column;
+          for (int j = 0; j < width; j++) {
+            tile.pixels[to + j] = 0xFF000000 | src[from + j];
+          }
+        }
+        tile.dirty = true;
+      }
+    } finally {
+      tile.users.decrementAndGet();
+    }
+  }
+
+  /**
+   * Drops every tile of an image without writing it back, once the image is freed.
+   *
+   * @param owner the image
+   */
+  synchronized void forget(TiledImage owner) {
+    tiles.values().removeIf(tile -> tile.owner == owner);
+  }
+
+  /**
+   * Finds a tile in the cache, or loads it and makes room for it, and counts the caller as one of
+   * its users until it lets go of it. A user keeps the tile from being dropped.
+   *
+   * @param owner the image
+   * @param index the index of the tile in the image
+   * @param load  whether the pixels of a tile that is not in memory must be read
+   * @return the tile, whose users the caller must decrement when it is done with it
+   * @throws IllegalStateException if the image has been freed
+   * @throws UncheckedIOException  if a tile can not be read or written back
+   */
+  private Tile tile(TiledImage owner, int index, boolean load) throws IllegalStateException,
+      UncheckedIOException {
+    Long key = ((long) owner.id() << 32) | index;
+    Tile tile;
+    synchronized (this) {
+      while (true) {
+        // an image is marked as freed before its tiles are forgotten under this lock, so checking
+        // here keeps a late reader from caching tiles of a dead image
+        if (owner.isReleased()) {
+          throw new IllegalStateException("The image has been released.");
+        }
+        tile = tiles.get(key);
+        if (tile == null) {
+          break;
+        }
+        if (tile.pixels != null) {
+          hits++;
+          tile.users.incrementAndGet();
+          return tile;
+        }
+        awaitLoad();
+      }
+      misses++;
+      tile = new Tile(owner, index, key);
+      tile.users.incrementAndGet();
+      if (!load) {
+        tile.pixels = new int[TiledImage.TILE * TiledImage.TILE];
+      }
+      tiles.put(key, tile);
+    }
+
+    if (load) {
+      int[] pixels = null;
+      try {
+        pixels = owner.load(index);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        synchronized (this) {
+          if (pixels == null || owner.isReleased()) {
+            tiles.remove(key, tile);
+          } else {
+            tile.pixels = pixels;
+          }
+          notifyAll();
+        }
+      }
+      if (owner.isReleased()) {
+        tile.users.decrementAndGet();
+        throw new IllegalStateException("The image has been released.");
+      }
+    }
+
+    try {
+      evict();
+    } catch (RuntimeException e) {
+      tile.users.decrementAndGet();
+      throw e;
+    }
+    return tile;
+  }
+
+  /**
+   * Waits until a thread that is loading a tile is done with it.
+   */
+  private void awaitLoad() {
+    boolean interrupted = false;
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Drops the least recently used tiles until the cache holds no more than its capacity. Tiles
+   * that are being used or loaded are skipped. A changed tile is written back first, outside of
+   * the lock, and only dropped once that worked; if it fails, the tile stays in the cache and is
+   * still marked as changed.
+   *
+   * @throws UncheckedIOException if a tile can not be written back
+   */
+  private void evict() throws UncheckedIOException {
+    List<Tile> changed = new ArrayList<Tile>();
+    synchronized (this) {
+      int excess = tiles.size() - capacity;
+      Iterator<Tile> eldest = tiles.values().iterator();
+      while (excess > 0 && eldest.hasNext()) {
+        Tile tile = eldest.next();
+        if (tile.storing) {
+          excess--;
+        } else if (tile.pixels != null && tile.users.get() == 0) {
+          if (tile.isDirty()) {
+            tile.storing = true;
+            changed.add(tile);
+          } else {
+            eldest.remove();
+            evictions++;
+          }
+          excess--;
+        }
+      }
+    }
+
+    UncheckedIOException failure = null;
+    for (Tile tile : changed) {
+      int[] pixels;
+      synchronized (tile) {
+        pixels = tile.pixels.clone();
+        tile.dirty = false;
+      }
+      boolean stored = false;
+      try {
+        tile.owner.store(tile.index, pixels);
+        stored = true;
+      } catch (IOException e) {
+        synchronized (tile) {
+          tile.dirty = true;
+        }
+        if (failure == null) {
+          failure = new UncheckedIOException(e);
+        }
+      }
+      synchronized (this) {
+        tile.storing = false;
+        // a thread may have changed the tile again while it was written, in which case it stays
+        if (stored && !tile.isDirty() && tile.users.get() == 0 && tiles.remove(tile.key, tile)) {
+          evictions++;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
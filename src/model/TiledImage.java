@@ -0,0 +1,594 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * This class is an image that can be larger than the memory of the machine. Its pixels are split
+ * into square tiles of TILE by TILE packed ARGB integers, which live in a spill file on the disk
+ * and are loaded on demand into a TileCache that holds a bounded number of tiles. When the cache
+ * drops a tile that was changed, the tile is written back to the spill file first.
+ *
+ * <p>Filters, colors and tone adjustments go through the image one tile at a time, tile rows from
+ * top to bottom and tiles from left to right, so the tiles a filter reads around the current one
+ * (the tile row above and the tiles next to it) were used recently and are still in the cache. Each
+ * tile is read into a small packed image with a halo of the pixels around it that the kernel
+ * reaches, taken through the edge mode at the borders of the image, and processed with the same
+ * code as a PackedImage, so the result is exactly the same.
+ *
+ * <p>The spill file is deleted when the last layer that holds the image lets go of it, or when the
+ * image is garbage collected.
+ */
+public final class TiledImage extends ManagedImage {
+
+  /**
+   * The width and height of a tile in pixels.
+   */
+  static final int TILE = 256;
+
+  private static final AtomicInteger IDS = new AtomicInteger();
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private static volatile long threshold = Long.getLong("photoeditor.tiled.pixels", 1L << 30);
+
+  private final int id = IDS.incrementAndGet();
+  private final int height;
+  private final int width;
+  private final int tilesAcross;
+  private final int tilesDown;
+  private final TileCache cache;
+  private final Spill spill = new Spill();
+  private final Cleaner.Cleanable cleanable;
+  private final AtomicInteger references = new AtomicInteger();
+  private volatile boolean released;
+
+  /**
+   * This represents the spill file of an image. It is kept apart from the image so that it can be
+   * deleted once the image is garbage collected.
+   */
+  private static final class Spill implements Runnable {
+    private FileChannel channel;
+    private final BitSet stored = new BitSet();
+
+    @Override
+    public synchronized void run() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // the file is deleted on close, so there is nothing left to do
+        }
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * Constructs a black image of the given size whose tiles are kept in the shared cache.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @throws IllegalArgumentException if either dimension is negative
+   */
+  public TiledImage(int height, int width) throws IllegalArgumentException {
+    this(height, width, TileCache.shared());
+  }
+
+  /**
+   * Constructs a black image of the given size whose tiles are kept in the given cache.
+   *
+   * @param height the height of the image in pixels
+   * @param width  the width of the image in pixels
+   * @param cache  the cache of the tiles
+   * @throws IllegalArgumentException if either dimension is negative or the cache is null
+   */
+  public TiledImage(int height, int width, TileCache cache) throws IllegalArgumentException {
+    if (height < 0 || width < 0) {
+      throw new IllegalArgumentException("The dimensions of the image cannot be negative.");
+    }
+    if (cache == null) {
+      throw new IllegalArgumentException("The cache cannot be null.");
+    }
+    this.height = height;
+    this.width = width;
+    this.tilesAcross = (width + TILE - 1) / TILE;
+    this.tilesDown = (height + TILE - 1) / TILE;
+    this.cache = cache;
+    this.cleanable = CLEANER.register(this, spill);
+  }
+
+  /**
+   * Creates a tiled image with the same pixels as the given ImageRep, in the shared cache. The
+   * pixels are copied a row of tiles at a time.
+   *
+   * @param image the image to be copied
+   * @return the tiled image
+   * @throws IllegalArgumentException if the image is null
+   * @throws UncheckedIOException     if the spill file can not be written
+   */
+  public static TiledImage of(ImageRep image) throws IllegalArgumentException,
+      UncheckedIOException {
+    if (image == null) {
+      throw new IllegalArgumentException("The image cannot be null.");
+    }
+    if (image instanceof TiledImage) {
+      return (TiledImage) image;
+    }
+    TiledImage copy = new TiledImage(image.getHeight(), image.getWidth());
+    int[] band = new int[Math.min(TILE, copy.height) * copy.width];
+    for (int first = 0; first < copy.height; first += TILE) {
+      int rows = Math.min(TILE, copy.height - first);
+      image.getRGB(first, 0, rows, copy.width, band, 0, copy.width);
+      copy.setRGB(first, 0, rows, copy.width, band, 0, copy.width);
+    }
+    return copy;
+  }
+
+  /**
+   * Sets the number of pixels from which images read from files are kept in tiles on the disk.
+   * The default is about a billion pixels, or the value of the system property
+   * "photoeditor.tiled.pixels".
+   *
+   * @param pixels the number of pixels
+   * @throws IllegalArgumentException if the number is negative
+   */
+  public static void setThreshold(long pixels) throws IllegalArgumentException {
+    if (pixels < 0) {
+      throw new IllegalArgumentException("The threshold cannot be negative.");
+    }
+    threshold = pixels;
+  }
+
+  /**
+   * Gives the number of pixels from which images read from files are kept in tiles on the disk.
+   *
+   * @return the number of pixels
+   */
+  public static long getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Gives the cache that holds the tiles of this image.
+   *
+   * @return the cache
+   */
+  public TileCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public int getPackedAt(int row, int column) throws IllegalArgumentException,
+      IllegalStateException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      throw new IllegalArgumentException("The position is outside of the image.");
+    }
+    int[] pixel = new int[1];
+    getRGB(row, column, 1, 1, pixel, 0, 1);
+    return pixel[0];
+  }
+
+  @Override
+  public boolean isReleased() {
+    return released;
+  }
+
+  @Override
+  void retain() throws IllegalStateException {
+    checkOpen();
+    references.incrementAndGet();
+  }
+
+  @Override
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      released = true;
+      cache.forget(this);
+      cleanable.clean();
+    }
+  }
+
+  @Override
+  void setRGB(int row, int column, int height, int width, int[] src, int offset, int scan)
+      throws IllegalArgumentException, UncheckedIOException {
+    PackedImage.checkRegion(this, row, column, height, width, src, offset, scan);
+    checkOpen();
+    forEachTile(row, column, height, width, (index, r, c, rows, columns, down, across) ->
+        cache.write(this, index, r, c, rows, columns, src, offset + down * scan + across, scan));
+  }
+
+  @Override
+  public void applyFilterToPixel(double[][] kernel, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    Kernel compiled = Kernel.of(kernel);
+    checkTarget(targX, targY, arr);
+    int radius = compiled.radius();
+    int size = 2 * radius + 1;
+    IPixel[][] target = new IPixel[size][];
+    target[radius] = new IPixel[size];
+    patch(targX - radius, targY - radius, size, size, EdgeMode.ZERO)
+        .applyFilterToPixel(compiled, radius, radius, target);
+    arr[targX][targY] = target[radius][radius];
+  }
+
+  @Override
+  public void applyColorToPixel(double[][] matrix, int targX, int targY, IPixel[][] arr)
+      throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    checkTarget(targX, targY, arr);
+    IPixel[][] target = new IPixel[][] {new IPixel[1]};
+    patch(targX, targY, 1, 1, EdgeMode.ZERO).applyColorToPixel(matrix, 0, 0, target);
+    arr[targX][targY] = target[0][0];
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public IPixel getPixelAt(int row, int column) throws IllegalStateException {
+    if (row < 0 || row >= height || column < 0 || column >= width) {
+      return new Pixel(0, 0, 0);
+    }
+    int value = getPackedAt(row, column);
+    return new Pixel((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+  }
+
+  @Override
+  public void getRGB(int row, int column, int height, int width, int[] dest, int offset,
+      int scan) throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+    PackedImage.checkRegion(this, row, column, height, width, dest, offset, scan);
+    checkOpen();
+    forEachTile(row, column, height, width, (index, r, c, rows, columns, down, across) ->
+        cache.read(this, index, r, c, rows, columns, dest, offset + down * scan + across, scan));
+  }
+
+  /**
+   * Generates a 2D array of the pixels of the image. This copies every pixel onto the heap, so it
+   * should be avoided for the large images this class is meant for.
+   *
+   * @return the 2D array of pixels
+   */
+  @Override
+  public IPixel[][] genArray() {
+    IPixel[][] dest = new Pixel[height][width];
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRGB(i, 0, 1, width, row, 0, width);
+      for (int j = 0; j < width; j++) {
+        dest[i][j] = new Pixel((row[j] >> 16) & 0xFF, (row[j] >> 8) & 0xFF, row[j] & 0xFF);
+      }
+    }
+    return dest;
+  }
+
+  @Override
+  public ImageRep filterPhoto(double[][] kernel) throws IllegalArgumentException {
+    return filterPhoto(Kernel.of(kernel), EdgeMode.ZERO);
+  }
+
+  @Override
+  public TiledImage filterPhoto(Kernel kernel, EdgeMode edges) throws IllegalArgumentException {
+    if (kernel == null || edges == null) {
+      throw new IllegalArgumentException("The kernel and edge mode cannot be null.");
+    }
+    return map(kernel.radius(), edges, patch -> patch.filterPhoto(kernel, edges));
+  }
+
+  @Override
+  public TiledImage colorPhoto(double[][] matrix) throws IllegalArgumentException {
+    PackedImage.checkMatrix(matrix);
+    return map(0, EdgeMode.ZERO, patch -> patch.colorPhoto(matrix));
+  }
+
+  @Override
+  public TiledImage adjustPhoto(ToneTable table) throws IllegalArgumentException {
+    if (table == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+    return map(0, EdgeMode.ZERO, patch -> patch.adjustPhoto(table));
+  }
+
+  @Override
+  TiledImage colorChain(List<double[][]> matrices) throws IllegalArgumentException {
+    if (matrices == null || matrices.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one matrix.");
+    }
+    for (double[][] matrix : matrices) {
+      PackedImage.checkMatrix(matrix);
+    }
+    return map(0, EdgeMode.ZERO, patch -> patch.colorChain(matrices));
+  }
+
+  /**
+   * Gives the identifier of the image, which tells its tiles apart from those of other images in
+   * the cache.
+   *
+   * @return the identifier
+   */
+  int id() {
+    return id;
+  }
+
+  /**
+   * Reads one tile from the spill file. A tile that was never written back is black. The file is
+   * read outside of the lock of the spill, so tiles of the same image can be read at once.
+   *
+   * @param index the index of the tile
+   * @return the pixels of the tile, row after row
+   * @throws IllegalStateException if the image has been freed
+   * @throws IOException           if the spill file can not be read
+   */
+  int[] load(int index) throws IllegalStateException, IOException {
+    int[] pixels = new int[TILE * TILE];
+    FileChannel channel;
+    synchronized (spill) {
+      checkOpen();
+      if (!spill.stored.get(index)) {
+        Arrays.fill(pixels, 0xFF000000);
+        return pixels;
+      }
+      channel = spill.channel;
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(TILE * TILE * 4).order(ByteOrder.nativeOrder());
+    long position = (long) index * bytes.capacity();
+    try {
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, position + bytes.position()) < 0) {
+          throw new IOException("The spill file ended too early.");
+        }
+      }
+    } catch (ClosedChannelException e) {
+      checkOpen();
+      throw e;
+    }
+    bytes.flip();
+    bytes.asIntBuffer().get(pixels);
+    return pixels;
+  }
+
+  /**
+   * Writes one tile back to the spill file, creating the file if this is the first tile. Nothing
+   * is written once the image has been freed.
+   *
+   * @param index  the index of the tile
+   * @param pixels the pixels of the tile, row after row
+   * @throws IOException if the spill file can not be written
+   */
+  void store(int index, int[] pixels) throws IOException {
+    ByteBuffer bytes = ByteBuffer.allocate(TILE * TILE * 4).order(ByteOrder.nativeOrder());
+    bytes.asIntBuffer().put(pixels);
+    FileChannel channel;
+    synchronized (spill) {
+      if (released) {
+        return;
+      }
+      if (spill.channel == null) {
+        Path file = Files.createTempFile("photoeditor", ".tiles");
+        spill.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+      }
+      channel = spill.channel;
+    }
+    long position = (long) index * bytes.capacity();
+    try {
+      while (bytes.hasRemaining()) {
+        channel.write(bytes, position + bytes.position());
+      }
+    } catch (ClosedChannelException e) {
+      if (released) {
+        return;
+      }
+      throw e;
+    }
+    synchronized (spill) {
+      spill.stored.set(index);
+    }
+  }
+
+  /**
+   * Runs an operation over the image one tile at a time and collects the tiles into a new tiled
+   * image in the same cache. Rows of tiles are processed in parallel.
+   *
+   * @param halo      how many pixels around a tile the operation reads
+   * @param edges     what is read for pixels outside of the image
+   * @param operation the operation, run on a packed image of the tile and its halo
+   * @return the new image
+   */
+  private TiledImage map(int halo, EdgeMode edges, Function<PackedImage, ImageRep> operation) {
+    checkOpen();
+    TiledImage result = new TiledImage(height, width, cache);
+    int tileRowPixels = (int) Math.min(Integer.MAX_VALUE, (long) tilesAcross * TILE * TILE);
+    WorkerPool.forEachBand(tilesDown, tileRowPixels, (from, to) -> {
+      int[] pixels = new int[TILE * TILE];
+      for (int tileRow = from; tileRow < to; tileRow++) {
+        for (int tileColumn = 0; tileColumn < tilesAcross; tileColumn++) {
+          int row = tileRow * TILE;
+          int column = tileColumn * TILE;
+          int rows = Math.min(TILE, height - row);
+          int columns = Math.min(TILE, width - column);
+          ImageRep done = operation.apply(patch(row - halo, column - halo, rows + 2 * halo,
+              columns + 2 * halo, edges));
+          done.getRGB(halo, halo, rows, columns, pixels, 0, columns);
+          result.setRGB(row, column, rows, columns, pixels, 0, columns);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Reads a rectangle of the image into a packed image on the heap. Pixels outside of the image
+   * are read through the edge mode. The rows inside the image are read with one getRGB call for
+   * each of the strip left of the image, the part inside it and the strip right of it, and the rows
+   * outside of the image are copied from the rows they map to.
+   *
+   * @param row     the first row, which may be above the image
+   * @param column  the first column, which may be left of the image
+   * @param rows    the number of rows
+   * @param columns the number of columns
+   * @param edges   what is read for pixels outside of the image
+   * @return the packed image of the rectangle
+   */
+  private PackedImage patch(int row, int column, int rows, int columns, EdgeMode edges) {
+    int[] data = new int[rows * columns];
+    int top = Math.max(0, row);
+    int bottom = Math.min(height, row + rows);
+    int from = Math.min(columns, Math.max(0, -column));
+    int to = Math.max(from, Math.min(columns, width - column));
+    readColumns(top, bottom, column, 0, from, edges, data, (top - row) * columns, columns);
+    readColumns(top, bottom, column, from, to, edges, data, (top - row) * columns, columns);
+    readColumns(top, bottom, column, to, columns, edges, data, (top - row) * columns, columns);
+    for (int i = 0; i < rows; i++) {
+      if (row + i >= top && row + i < bottom) {
+        continue;
+      }
+      int source = edges.map(row + i, height);
+      if (source < 0) {
+        Arrays.fill(data, i * columns, (i + 1) * columns, 0xFF000000);
+      } else if (source >= top && source < bottom) {
+        System.arraycopy(data, (source - row) * columns, data, i * columns, columns);
+      } else {
+        readColumns(source, source + 1, column, 0, from, edges, data, i * columns, columns);
+        readColumns(source, source + 1, column, from, to, edges, data, i * columns, columns);
+        readColumns(source, source + 1, column, to, columns, edges, data, i * columns, columns);
+      }
+    }
+    return new PackedImage(rows, columns, data);
+  }
+
+  /**
+   * Reads some of the columns of a patch for a run of rows of the image, with a single getRGB call
+   * for the columns of the image they map to through the edge mode. Columns that map to nothing
+   * are black.
+   *
+   * @param top    the first row of the image to read
+   * @param bottom the row of the image after the last one to read
+   * @param column the column of the image of the first column of the patch
+   * @param first  the first column of the patch to fill
+   * @param last   the column of the patch after the last one to fill
+   * @param edges  what is read for columns outside of the image
+   * @param data   the pixels of the patch
+   * @param start  the index in the data of the patch row that the first image row goes to
+   * @param scan   the width of the patch
+   */
+  private void readColumns(int top, int bottom, int column, int first, int last, EdgeMode edges,
+      int[] data, int start, int scan) {
+    if (first >= last || top >= bottom) {
+      return;
+    }
+    int[] mapped = new int[last - first];
+    int low = width;
+    int high = -1;
+    for (int j = first; j < last; j++) {
+      mapped[j - first] = edges.map(column + j, width);
+      if (mapped[j - first] >= 0) {
+        low = Math.min(low, mapped[j - first]);
+        high = Math.max(high, mapped[j - first]);
+      }
+    }
+    int span = high - low + 1;
+    int[] strip = high < 0 ? null : new int[(bottom - top) * span];
+    if (strip != null) {
+      getRGB(top, low, bottom - top, span, strip, 0, span);
+    }
+    for (int i = 0; i < bottom - top; i++) {
+      for (int j = first; j < last; j++) {
+        int source = mapped[j - first];
+        data[start + i * scan + j] = source < 0 ? 0xFF000000 : strip[i * span + source - low];
+      }
+    }
+  }
+
+  /**
+   * Splits a rectangle of the image along the tiles it covers, going through the tiles row by
+   * row.
+   *
+   * @param row     the first row of the rectangle
+   * @param column  the first column of the rectangle
+   * @param height  the number of rows
+   * @param width   the number of columns
+   * @param visitor what is done with the part of the rectangle in each tile
+   */
+  private void forEachTile(int row, int column, int height, int width, TileVisitor visitor) {
+    for (int top = row; top < row + height; top = (top / TILE + 1) * TILE) {
+      int rows = Math.min(row + height, (top / TILE + 1) * TILE) - top;
+      for (int left = column; left < column + width; left = (left / TILE + 1) * TILE) {
+        int columns = Math.min(column + width, (left / TILE + 1) * TILE) - left;
+        int index = (top / TILE) * tilesAcross + left / TILE;
+        visitor.visit(index, top % TILE, left % TILE, rows, columns, top - row, left - column);
+      }
+    }
+  }
+
+  /**
+   * This represents what is done with the part of a rectangle that falls in one tile.
+   */
+  private interface TileVisitor {
+
+    /**
+     * Handles the part of a rectangle in one tile.
+     *
+     * @param index   the index of the tile
+     * @param row     the first row of the part, inside the tile
+     * @param column  the first column of the part, inside the tile
+     * @param rows    the number of rows of the part
+     * @param columns the number of columns of the part
+     * @param down    how many rows below the top of the rectangle the part starts
+     * @param across  how many columns right of the left of the rectangle the part starts
+     */
+    void visit(int index, int row, int column, int rows, int columns, int down, int across);
+  }
+
+  /**
+   * Checks that the image has not been freed.
+   *
+   * @throws IllegalStateException if the image has been freed
+   */
+  private void checkOpen() throws IllegalStateException {
+    if (released) {
+      throw new IllegalStateException("The image has been released.");
+    }
+  }
+
+  /**
+   * Checks that the target position is inside both this image and the destination array.
+   *
+   * @param targX the row of the pixel
+   * @param targY the column of the pixel
+   * @param arr   the destination array
+   * @throws IllegalArgumentException if the position or the array is invalid
+   */
+  private void checkTarget(int targX, int targY, IPixel[][] arr) throws IllegalArgumentException {
+    if (targX < 0 || targX >= height) {
+      throw new IllegalArgumentException("TargX is invalid");
+    }
+
+    if (targY < 0 || targY >= width) {
+      throw new IllegalArgumentException("TargY is invalid");
+    }
+
+    if (arr == null || arr.length <= targX || arr[targX] == null || arr[targX].length <= targY) {
+      throw new IllegalArgumentException("The destination array is invalid.");
+    }
+  }
+}
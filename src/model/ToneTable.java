@@ -0,0 +1,321 @@
+package model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents a tonal adjustment that maps every 8-bit value of the red, green and blue
+ * channels to a new value through a table of 256 entries per channel. Applying it costs one table
+ * load per channel and pixel, with no floating point math. The common adjustments (levels, gamma,
+ * brightness and curves) are built once for each set of parameters and kept in a small cache, so
+ * applying the same adjustment again does not rebuild its tables. Tables can not be changed after
+ * they are made.
+ */
+public final class ToneTable {
+
+  /**
+   * How many tables built from parameters are kept, so that a long session of different curves
+   * does not keep every table alive.
+   */
+  private static final int CACHE_SIZE = 64;
+
+  private static final Map<String, ToneTable> CACHE =
+      new LinkedHashMap<String, ToneTable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ToneTable> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  // the new values, already shifted into their place in a packed ARGB integer
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  /**
+   * Creates a table from the new values of each channel.
+   *
+   * @param red   the new red values, which are copied
+   * @param green the new green values, which are copied
+   * @param blue  the new blue values, which are copied
+   */
+  private ToneTable(int[] red, int[] green, int[] blue) {
+    this.red = new int[256];
+    this.green = new int[256];
+    this.blue = new int[256];
+    for (int v = 0; v < 256; v++) {
+      this.red[v] = red[v] << 16;
+      this.green[v] = green[v] << 8;
+      this.blue[v] = blue[v];
+    }
+  }
+
+  /**
+   * Creates a table with its own values for each channel. Entry v of an array is the new value of
+   * a channel that was v.
+   *
+   * @param red   the 256 new red values
+   * @param green the 256 new green values
+   * @param blue  the 256 new blue values
+   * @return the table
+   * @throws IllegalArgumentException if an array is null, does not have 256 entries, or holds a
+   *                                  value outside of 0 to 255
+   */
+  public static ToneTable of(int[] red, int[] green, int[] blue) throws IllegalArgumentException {
+    checkValues(red);
+    checkValues(green);
+    checkValues(blue);
+    return new ToneTable(red, green, blue);
+  }
+
+  /**
+   * Gives the table that adds the given amount to every channel, clamped to 0 to 255.
+   *
+   * @param amount how much brighter (or, when negative, darker) the image becomes
+   * @return the table
+   * @throws IllegalArgumentException if the amount is not between -255 and 255
+   */
+  public static ToneTable brightness(int amount) throws IllegalArgumentException {
+    if (amount < -255 || amount > 255) {
+      throw new IllegalArgumentException("The brightness must be between -255 and 255.");
+    }
+    return cached("brightness " + amount, v -> Math.max(0, Math.min(255, v + amount)));
+  }
+
+  /**
+   * Gives the table that applies a gamma correction to every channel: a value v becomes
+   * 255 * (v / 255) ^ (1 / gamma), so a gamma above 1 brightens the middle tones.
+   *
+   * @param gamma the gamma of the correction
+   * @return the table
+   * @throws IllegalArgumentException if the gamma is not a positive number
+   */
+  public static ToneTable gamma(double gamma) throws IllegalArgumentException {
+    return levels(0, 255, gamma);
+  }
+
+  /**
+   * Gives the table that stretches the values between the black and white points over the whole
+   * range and then applies a gamma correction. Values at or below the black point become 0 and
+   * values at or above the white point become 255.
+   *
+   * @param black the input value that becomes 0
+   * @param white the input value that becomes 255
+   * @param gamma the gamma of the correction, 1 for none
+   * @return the table
+   * @throws IllegalArgumentException if the points are not between 0 and 255 with the black point
+   *                                  below the white point, or the gamma is not a positive number
+   */
+  public static ToneTable levels(int black, int white, double gamma)
+      throws IllegalArgumentException {
+    if (black < 0 || white > 255 || black >= white) {
+      throw new IllegalArgumentException(
+          "The black and white points must be between 0 and 255, with black below white.");
+    }
+    if (!(gamma > 0) || Double.isInfinite(gamma)) {
+      throw new IllegalArgumentException("The gamma must be a positive number.");
+    }
+
+    return cached("levels " + black + " " + white + " " + gamma, v -> {
+      double position = (Math.max(black, Math.min(white, v)) - black) / (double) (white - black);
+      return (int) Math.round(255 * Math.pow(position, 1 / gamma));
+    });
+  }
+
+  /**
+   * Gives the table of a curve through the given control points. Between two points the curve is a
+   * straight line, and before the first and after the last point it is flat.
+   *
+   * @param inputs  the input values of the points, in increasing order
+   * @param outputs the output values of the points
+   * @return the table
+   * @throws IllegalArgumentException if the arrays are null, do not have the same length, hold
+   *                                  fewer than two points or a value outside of 0 to 255, or the
+   *                                  inputs are not increasing
+   */
+  public static ToneTable curves(int[] inputs, int[] outputs) throws IllegalArgumentException {
+    if (inputs == null || outputs == null || inputs.length != outputs.length
+        || inputs.length < 2) {
+      throw new IllegalArgumentException("A curve needs at least two points.");
+    }
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] < 0 || inputs[i] > 255 || outputs[i] < 0 || outputs[i] > 255) {
+        throw new IllegalArgumentException("The points of a curve must be between 0 and 255.");
+      }
+      if (i > 0 && inputs[i] <= inputs[i - 1]) {
+        throw new IllegalArgumentException("The inputs of a curve must be increasing.");
+      }
+    }
+
+    int[] xs = inputs.clone();
+    int[] ys = outputs.clone();
+    return cached("curves " + Arrays.toString(xs) + " " + Arrays.toString(ys), v -> {
+      if (v <= xs[0]) {
+        return ys[0];
+      }
+      int i = 1;
+      while (i < xs.length - 1 && xs[i] < v) {
+        i++;
+      }
+      if (v >= xs[i]) {
+        return ys[i];
+      }
+      double t = (v - xs[i - 1]) / (double) (xs[i] - xs[i - 1]);
+      return (int) Math.round(ys[i - 1] + t * (ys[i] - ys[i - 1]));
+    });
+  }
+
+  /**
+   * Gives the table that has the same effect as applying this table and then the given one. Since
+   * both only ever produce values between 0 and 255, the result is exact.
+   *
+   * @param next the table that is applied second
+   * @return the combined table
+   * @throws IllegalArgumentException if the table is null
+   */
+  public ToneTable then(ToneTable next) throws IllegalArgumentException {
+    if (next == null) {
+      throw new IllegalArgumentException("The table cannot be null.");
+    }
+
+    int[] newRed = new int[256];
+    int[] newGreen = new int[256];
+    int[] newBlue = new int[256];
+    for (int v = 0; v < 256; v++) {
+      newRed[v] = next.getRed(getRed(v));
+      newGreen[v] = next.getGreen(getGreen(v));
+      newBlue[v] = next.getBlue(getBlue(v));
+    }
+    return new ToneTable(newRed, newGreen, newBlue);
+  }
+
+  /**
+   * Gives the new value of a red channel.
+   *
+   * @param value the value of the channel, between 0 and 255
+   * @return the new value
+   */
+  public int getRed(int value) {
+    return red[value] >> 16;
+  }
+
+  /**
+   * Gives the new value of a green channel.
+   *
+   * @param value the value of the channel, between 0 and 255
+   * @return the new value
+   */
+  public int getGreen(int value) {
+    return green[value] >> 8;
+  }
+
+  /**
+   * Gives the new value of a blue channel.
+   *
+   * @param value the value of the channel, between 0 and 255
+   * @return the new value
+   */
+  public int getBlue(int value) {
+    return blue[value];
+  }
+
+  /**
+   * Applies the table to every pixel of a packed image. The rows are processed in parallel on the
+   * worker pool.
+   *
+   * @param argb   the packed ARGB pixels in row-major order
+   * @param height the height of the image
+   * @param width  the width of the image
+   * @return the adjusted packed pixels
+   */
+  int[] apply(int[] argb, int height, int width) {
+    int[] result = new int[argb.length];
+    WorkerPool.forEachBand(height, width, (from, to) -> {
+      for (int i = from * width; i < to * width; i++) {
+        int value = argb[i];
+        result[i] = 0xFF000000 | red[(value >> 16) & 0xFF] | green[(value >> 8) & 0xFF]
+            | blue[value & 0xFF];
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Applies the table of one channel to a plane of a planar image.
+   *
+   * @param plane   the plane
+   * @param height  the height of the image
+   * @param width   the width of the image
+   * @param channel 0 for the red, 1 for the green and 2 for the blue plane
+   * @return the adjusted plane
+   */
+  byte[] apply(byte[] plane, int height, int width, int channel) {
+    byte[] table = new byte[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = (byte) (channel == 0 ? getRed(v) : channel == 1 ? getGreen(v) : getBlue(v));
+    }
+
+    byte[] result = new byte[plane.length];
+    WorkerPool.forEachBand(height, width, (from, to) -> {
+      for (int i = from * width; i < to * width; i++) {
+        result[i] = table[plane[i] & 0xFF];
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Gives the cached table with the given key, or builds it with the same function for all three
+   * channels and caches it.
+   *
+   * @param key      the key made of the name and parameters of the adjustment
+   * @param function the new value of each input value
+   * @return the table
+   */
+  private static ToneTable cached(String key, ValueFunction function) {
+    synchronized (CACHE) {
+      ToneTable table = CACHE.get(key);
+      if (table == null) {
+        int[] values = new int[256];
+        for (int v = 0; v < 256; v++) {
+          values[v] = function.apply(v);
+        }
+        table = new ToneTable(values, values, values);
+        CACHE.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Checks that an array holds 256 values between 0 and 255.
+   *
+   * @param values the array to be checked
+   * @throws IllegalArgumentException if it does not
+   */
+  private static void checkValues(int[] values) throws IllegalArgumentException {
+    if (values == null || values.length != 256) {
+      throw new IllegalArgumentException("A table must have 256 values.");
+    }
+    for (int value : values) {
+      if (value < 0 || value > 255) {
+        throw new IllegalArgumentException("The values of a table must be between 0 and 255.");
+      }
+    }
+  }
+
+  /**
+   * This represents the function that gives the new value of an input value.
+   */
+  private interface ValueFunction {
+
+    /**
+     * Gives the new value of an input value.
+     *
+     * @param value the input value, between 0 and 255
+     * @return the new value, between 0 and 255
+     */
+    int apply(int value);
+  }
+}
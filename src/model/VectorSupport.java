@@ -0,0 +1,56 @@
+package model;
+
+/**
+ * This class picks the implementation of the innermost loops when the program starts. If the JVM
+ * was started with the jdk.incubator.vector module (ie. with "--add-modules
+ * jdk.incubator.vector") and the VectorKernels class from the src-vector folder is on the class
+ * path, the loops use SIMD instructions through the Vector API. Otherwise the scalar loops are
+ * used. Setting the system property "photoeditor.vector" to "false" always picks the scalar loops.
+ */
+public final class VectorSupport {
+
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+  private static final String VECTOR_CLASS = "model.VectorKernels";
+
+  private static final PixelKernels KERNELS = load();
+
+  private VectorSupport() {
+  }
+
+  /**
+   * Gives the name of the implementation of the innermost loops that is in use, either "scalar"
+   * or the name of the SIMD implementation.
+   *
+   * @return the name of the active implementation
+   */
+  public static String getImplementation() {
+    return KERNELS.name();
+  }
+
+  /**
+   * Gives the implementation of the innermost loops that is in use.
+   *
+   * @return the active implementation
+   */
+  static PixelKernels kernels() {
+    return KERNELS;
+  }
+
+  /**
+   * Loads the SIMD implementation if it can be used, and the scalar one otherwise.
+   *
+   * @return the implementation to use
+   */
+  private static PixelKernels load() {
+    if (!Boolean.parseBoolean(System.getProperty("photoeditor.vector", "true"))
+        || ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+      return new ScalarKernels();
+    }
+
+    try {
+      return (PixelKernels) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | ClassCastException err) {
+      return new ScalarKernels();
+    }
+  }
+}
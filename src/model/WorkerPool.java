@@ -0,0 +1,127 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class holds the pool of threads that the model uses to process large images. Work is split
+ * into bands of rows, and every band is written by exactly one task, so the output does not depend
+ * on how many threads are used or in which order the bands finish.
+ */
+public final class WorkerPool {
+
+  /**
+   * The number of pixels below which a band is not split any further. Smaller bands cost more to
+   * hand to another thread than they save.
+   */
+  private static final int MIN_BAND_PIXELS = 1 << 15;
+
+  private static ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  private WorkerPool() {
+  }
+
+  /**
+   * This represents a piece of work that processes a band of rows of an image.
+   */
+  interface BandTask {
+
+    /**
+     * Processes the rows from the first row (inclusive) to the last row (exclusive).
+     *
+     * @param from the first row of the band
+     * @param to   the row after the last row of the band
+     */
+    void run(int from, int to);
+  }
+
+  /**
+   * Sets how many threads are used to process images. A parallelism of 1 processes every image on
+   * the calling thread.
+   *
+   * @param parallelism the number of threads to use
+   * @throws IllegalArgumentException if the parallelism is less than 1
+   */
+  public static synchronized void setParallelism(int parallelism)
+      throws IllegalArgumentException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1.");
+    }
+
+    if (parallelism != pool.getParallelism()) {
+      ForkJoinPool old = pool;
+      pool = new ForkJoinPool(parallelism);
+      old.shutdown();
+    }
+  }
+
+  /**
+   * Gives how many threads are used to process images.
+   *
+   * @return the number of threads
+   */
+  public static synchronized int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Gives the pool of threads, for work that is not split into bands of rows.
+   *
+   * @return the current pool
+   */
+  static synchronized ForkJoinPool pool() {
+    return pool;
+  }
+
+  /**
+   * Runs the task over all the rows of an image, split into bands that are processed in parallel.
+   * Small images, and a parallelism of 1, are processed on the calling thread. This method returns
+   * once every band has been processed.
+   *
+   * @param height the number of rows of the image
+   * @param width  the number of pixels in a row
+   * @param task   the work to be done on each band
+   */
+  static void forEachBand(int height, int width, BandTask task) {
+    ForkJoinPool current = pool();
+    int minRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, width));
+
+    if (current.getParallelism() == 1 || height <= minRows) {
+      task.run(0, height);
+      return;
+    }
+
+    // leave a few bands per thread, so that a slow band does not hold up the others
+    int bandRows = Math.max(minRows, height / (current.getParallelism() * 4));
+    current.invoke(new Band(task, 0, height, bandRows));
+  }
+
+  /**
+   * This represents a band of rows that splits itself in half until it is small enough.
+   */
+  private static final class Band extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final BandTask task;
+    private final int from;
+    private final int to;
+    private final int bandRows;
+
+    private Band(BandTask task, int from, int to, int bandRows) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= bandRows) {
+        task.run(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Band(task, from, middle, bandRows), new Band(task, middle, to, bandRows));
+    }
+  }
+}
@@ -48,6 +48,7 @@ public class SwingViewFrame extends JFrame implements ISwingView {
   private JButton exportCurrent;
   private JButton exportAll;
   private JButton importAll;
+  private JButton uploadArchive;
   private JPanel layersPanel;
 
   private JLabel imageLabel;
@@ -147,7 +148,7 @@ public class SwingViewFrame extends JFrame implements ISwingView {
     uploadButton.setActionCommand("Upload image");
     fileActionsFrame.add(uploadButton);
 
-    JButton uploadArchive = new JButton("Upload archive");
+    uploadArchive = new JButton("Upload archive");
     uploadArchive.setActionCommand("Upload archive");
     fileActionsFrame.add(uploadArchive);
 
@@ -310,7 +311,7 @@ public class SwingViewFrame extends JFrame implements ISwingView {
       }
       fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
       fc.addChoosableFileFilter(new FileNameExtensionFilter("Images",
-          "png", "jpeg", "ppm"));
+          "png", "jpeg", "ppm", "pgm", "pam"));
       fc.setAcceptAllFileFilterUsed(false);
       int res = fc.showOpenDialog(frame);
       if (res == JFileChooser.APPROVE_OPTION) {
@@ -344,12 +345,38 @@ public class SwingViewFrame extends JFrame implements ISwingView {
       }
     });
 
+    uploadArchive.addActionListener(evt -> {
+      JFrame frame = new JFrame();
+      JFileChooser fc = new JFileChooser();
+      fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+      fc.addChoosableFileFilter(new FileNameExtensionFilter("Layered project", "layers"));
+      fc.setAcceptAllFileFilterUsed(false);
+      int res = fc.showOpenDialog(frame);
+      if (res == JFileChooser.APPROVE_OPTION) {
+        String path = fc.getSelectedFile().getAbsolutePath();
+        try {
+          features.importAll(path);
+          List<String> names = new ArrayList<>();
+          for (String name : features.getLayerNames()) {
+            if (!layers.containsKey(name)) {
+              names.add(name);
+            }
+          }
+          addLayerButtons(names, features);
+        } catch (IllegalStateException | IOException | IllegalArgumentException e) {
+          JFrame errorFrame = new JFrame();
+          JOptionPane.showMessageDialog(errorFrame, e.getMessage(), "IO Error reading archive",
+              JOptionPane.ERROR_MESSAGE);
+        }
+      }
+    });
+
     exportCurrent.addActionListener(evt -> {
       JFrame frame = new JFrame();
       JFileChooser fc = new JFileChooser();
       fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
       fc.addChoosableFileFilter(new FileNameExtensionFilter("Images", "jpg",
-          "png", "jpeg", "ppm"));
+          "png", "jpeg", "ppm", "pgm", "pam"));
       fc.setAcceptAllFileFilterUsed(false);
       int res = fc.showSaveDialog(frame);
       if (res == JFileChooser.APPROVE_OPTION) {
@@ -368,15 +395,18 @@ public class SwingViewFrame extends JFrame implements ISwingView {
     exportAll.addActionListener(evt -> {
       JFrame frame = new JFrame();
       JFileChooser fc = new JFileChooser();
-      fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+      fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
       int res = fc.showSaveDialog(frame);
       fc.addChoosableFileFilter(new FileNameExtensionFilter("Text", "txt"));
       fc.setAcceptAllFileFilterUsed(false);
       if (res == JFileChooser.APPROVE_OPTION) {
-        String path = fc.getCurrentDirectory().getAbsolutePath();
+        // a name ending in .layers is saved as one project file, otherwise as a folder
+        String path = fc.getSelectedFile().getName().endsWith(".layers")
+            ? fc.getSelectedFile().getAbsolutePath()
+            : fc.getCurrentDirectory().getAbsolutePath();
         try {
           features.exportAll(path);
-        } catch (IllegalStateException | IOException e) {
+        } catch (IllegalStateException | IOException | IllegalArgumentException e) {
           JFrame errorFrame = new JFrame();
           JOptionPane.showMessageDialog(errorFrame, e.getMessage(), "Error exporting all",
               JOptionPane.ERROR_MESSAGE);
@@ -406,7 +436,19 @@ public class SwingViewFrame extends JFrame implements ISwingView {
     while (input.hasNextLine()) {
       in.add(input.nextLine());
     }
+    input.close();
 
+    addLayerButtons(in, features);
+  }
+
+  /**
+   * Adds a button for each of the given layers, so that the top layer ends up first, and makes
+   * each of them change the "current" layer of the model when pressed.
+   *
+   * @param in       the names of the layers, from the top layer to the bottom one
+   * @param features a Features object or Swing controller where the actions will be performed
+   */
+  private void addLayerButtons(List<String> in, Features features) {
     for (int i = in.size() - 1; i >= 0; i--) {
       String name = in.get(i);
       JButton button = new JButton(name);
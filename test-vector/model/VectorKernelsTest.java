@@ -0,0 +1,116 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that the Vector API loops give exactly the same results as the scalar ones, including the
+ * values left over after the last whole vector. Like VectorKernels, it needs the
+ * jdk.incubator.vector module to compile and to run.
+ */
+public class VectorKernelsTest {
+
+  private static final int LENGTH = 1031;
+
+  private final PixelKernels scalar = new ScalarKernels();
+  private final PixelKernels vector = new VectorKernels();
+  private final Random random = new Random(6);
+
+  @Test
+  public void testAddWeightedBytesToDoubles() {
+    byte[] plane = bytes(LENGTH + 40);
+    for (int[] range : ranges()) {
+      double[] expected = doubles(LENGTH);
+      double[] actual = expected.clone();
+      scalar.addWeighted(expected, plane, 17, range[0], range[1], -0.3125);
+      vector.addWeighted(actual, plane, 17, range[0], range[1], -0.3125);
+      assertArrayEquals(expected, actual, 0);
+    }
+  }
+
+  @Test
+  public void testAddWeightedDoubles() {
+    double[] src = doubles(LENGTH);
+    for (int length : new int[] {0, 1, 3, 4, 7, 8, 9, LENGTH}) {
+      double[] expected = doubles(LENGTH);
+      double[] actual = expected.clone();
+      scalar.addWeighted(expected, src, length, 0.1);
+      vector.addWeighted(actual, src, length, 0.1);
+      assertArrayEquals(expected, actual, 0);
+    }
+  }
+
+  @Test
+  public void testAddWeightedBytesToInts() {
+    byte[] plane = bytes(LENGTH + 40);
+    for (int[] range : ranges()) {
+      int[] expected = ints(LENGTH);
+      int[] actual = expected.clone();
+      scalar.addWeighted(expected, plane, 17, range[0], range[1], -4096);
+      vector.addWeighted(actual, plane, 17, range[0], range[1], -4096);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testAddWeightedInts() {
+    int[] src = ints(LENGTH);
+    for (int length : new int[] {0, 1, 3, 4, 7, 8, 9, LENGTH}) {
+      int[] expected = ints(LENGTH);
+      int[] actual = expected.clone();
+      scalar.addWeighted(expected, src, length, 37);
+      vector.addWeighted(actual, src, length, 37);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testApplyColor() {
+    double[] sepia = {0.393, 0.769, 0.189, 0.349, 0.686, 0.168, 0.272, 0.534, 0.131};
+    double[] negative = {-1, 0, 0, 0, -1.5, 0, 0.25, 0, 2};
+    int[] src = ints(LENGTH);
+    for (double[] matrix : new double[][] {sepia, negative}) {
+      for (int[] range : ranges()) {
+        int[] expected = new int[LENGTH];
+        int[] actual = new int[LENGTH];
+        scalar.applyColor(matrix, src, expected, range[0], range[1]);
+        vector.applyColor(matrix, src, actual, range[0], range[1]);
+        assertArrayEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testVectorLoopsArePicked() {
+    assertEquals(vector.name(), VectorSupport.getImplementation());
+  }
+
+  private int[][] ranges() {
+    return new int[][] {{0, 0}, {0, 1}, {3, 10}, {5, 21}, {0, LENGTH}, {13, LENGTH - 2}};
+  }
+
+  private byte[] bytes(int length) {
+    byte[] values = new byte[length];
+    random.nextBytes(values);
+    return values;
+  }
+
+  private double[] doubles(int length) {
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = random.nextDouble() * 512 - 256;
+    }
+    return values;
+  }
+
+  private int[] ints(int length) {
+    int[] values = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = random.nextInt();
+    }
+    return values;
+  }
+}
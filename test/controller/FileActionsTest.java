@@ -0,0 +1,148 @@
+package controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import model.ImageRep;
+import model.LayerModel;
+import model.PackedImage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that every netpbm format gives back the pixels that were written to it, both for small
+ * files that are streamed and for files above PnmRaster.MAP_THRESHOLD that are memory-mapped.
+ */
+public class FileActionsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPlainPpmRoundTrip() throws IOException {
+    PackedImage image = randomImage(37, 53, 1);
+    assertArrayEquals(pixels(image), pixels(roundTrip(image, PnmFormat.PLAIN_PPM, "p3.ppm")));
+  }
+
+  @Test
+  public void testPpmRoundTrip() throws IOException {
+    PackedImage image = randomImage(37, 53, 2);
+    assertArrayEquals(pixels(image), pixels(roundTrip(image, PnmFormat.PPM, "p6.ppm")));
+  }
+
+  @Test
+  public void testPamRoundTrip() throws IOException {
+    PackedImage image = randomImage(37, 53, 3);
+    assertArrayEquals(pixels(image), pixels(roundTrip(image, PnmFormat.PAM, "p7.pam")));
+  }
+
+  @Test
+  public void testPgmRoundTripIsGrey() throws IOException {
+    PackedImage image = randomImage(37, 53, 4);
+    assertArrayEquals(grey(image), pixels(roundTrip(image, PnmFormat.PGM, "p5.pgm")));
+  }
+
+  @Test
+  public void testPlainPgmMatchesBinaryPgm() throws IOException {
+    File plain = folder.newFile("p2.pgm");
+    Files.write(plain.toPath(),
+        "P2\n# a comment\n3 2\n15\n0 15 7\n8 1 14\n".getBytes(StandardCharsets.US_ASCII));
+    File binary = folder.newFile("p5.pgm");
+    Files.write(binary.toPath(), concat("P5 3 2 15\n".getBytes(StandardCharsets.US_ASCII),
+        new byte[] {0, 15, 7, 8, 1, 14}));
+
+    int[] expected = new int[6];
+    int[] samples = {0, 15, 7, 8, 1, 14};
+    for (int i = 0; i < 6; i++) {
+      int value = (int) Math.round(samples[i] * 255.0 / 15);
+      expected[i] = PackedImage.pack(value, value, value);
+    }
+    assertArrayEquals(expected, pixels(FileActions.readPNM(plain.getPath())));
+    assertArrayEquals(expected, pixels(FileActions.readPNM(binary.getPath())));
+  }
+
+  @Test
+  public void testMappedPpmRoundTrip() throws IOException {
+    PackedImage image = randomImage(2400, 2400, 5);
+    ImageRep read = roundTrip(image, PnmFormat.PPM, "large.ppm");
+    assertTrue(new File(folder.getRoot(), "large.ppm").length() >= PnmRaster.MAP_THRESHOLD);
+    assertArrayEquals(pixels(image), pixels(read));
+  }
+
+  @Test
+  public void testMappedPamRoundTrip() throws IOException {
+    PackedImage image = randomImage(2400, 2400, 6);
+    ImageRep read = roundTrip(image, PnmFormat.PAM, "large.pam");
+    assertTrue(new File(folder.getRoot(), "large.pam").length() >= PnmRaster.MAP_THRESHOLD);
+    assertArrayEquals(pixels(image), pixels(read));
+  }
+
+  @Test
+  public void testMappedPgmRoundTrip() throws IOException {
+    PackedImage image = randomImage(4100, 4100, 7);
+    ImageRep read = roundTrip(image, PnmFormat.PGM, "large.pgm");
+    assertTrue(new File(folder.getRoot(), "large.pgm").length() >= PnmRaster.MAP_THRESHOLD);
+    assertArrayEquals(grey(image), pixels(read));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongExtension() throws IOException {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(randomImage(2, 2, 8));
+    FileActions.writePNM(new File(folder.getRoot(), "a.ppm").getPath(), model, PnmFormat.PAM);
+  }
+
+  /**
+   * Writes an image as the current layer of a model in the given format, and reads it back.
+   */
+  private ImageRep roundTrip(ImageRep image, PnmFormat format, String name) throws IOException {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(image);
+    String file = new File(folder.getRoot(), name).getPath();
+    FileActions.writePNM(file, model, format);
+    return FileActions.readPNM(file);
+  }
+
+  private static int[] grey(ImageRep image) {
+    int[] data = pixels(image);
+    for (int i = 0; i < data.length; i++) {
+      int r = (data[i] >> 16) & 0xFF;
+      int g = (data[i] >> 8) & 0xFF;
+      int b = data[i] & 0xFF;
+      int value = (int) Math.round(0.2126 * r + 0.7152 * g + 0.0722 * b);
+      data[i] = PackedImage.pack(value, value, value);
+    }
+    return data;
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] all = new byte[first.length + second.length];
+    System.arraycopy(first, 0, all, 0, first.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    return all;
+  }
+
+  private static PackedImage randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[height * width];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = 0xFF000000 | random.nextInt(1 << 24);
+    }
+    return new PackedImage(height, width, data);
+  }
+
+  private static int[] pixels(ImageRep image) {
+    int[] data = new int[image.getHeight() * image.getWidth()];
+    image.getRGB(0, 0, image.getHeight(), image.getWidth(), data, 0, image.getWidth());
+    return data;
+  }
+}
@@ -0,0 +1,144 @@
+package controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import model.ImageRep;
+import model.LayerModel;
+import model.PackedImage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a project file gives back the names, visibility, order and pixels of every layer, that
+ * one layer can be read on its own, and that damaged files are refused.
+ */
+public class ProjectArchiveTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final LayerModel model = new LayerModel();
+  private String file;
+
+  @Before
+  public void setUp() {
+    Random random = new Random(9);
+    for (int l = 0; l < 5; l++) {
+      model.addLayer("layer " + l);
+      int[] data = new int[120 * 170];
+      for (int i = 0; i < data.length; i++) {
+        // random layers do not compress, smooth ones do
+        data[i] = l % 2 == 0 ? 0xFF000000 | random.nextInt(1 << 24)
+            : PackedImage.pack(i % 170, (i / 170) & 0xFF, (i * l) & 0xFF);
+      }
+      model.upload(new PackedImage(120, 170, data));
+      if (l == 3) {
+        model.toggleVisible();
+      }
+    }
+    file = new File(folder.getRoot(), "project" + ProjectArchive.EXTENSION).getPath();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    FileActions.exportArchive(file, model);
+    LayerModel read = new LayerModel();
+    FileActions.importArchive(file, read);
+
+    assertEquals(model.numPhoto(), read.numPhoto());
+    for (int i = 0; i < model.numPhoto(); i++) {
+      assertEquals(model.getName(i), read.getName(i));
+      assertEquals(model.getLayer(i).isVisible(), read.getLayer(i).isVisible());
+      assertArrayEquals(pixels(model.getLayer(i).getImage()),
+          pixels(read.getLayer(i).getImage()));
+    }
+    assertFalse(read.getLayer(1).isVisible());
+  }
+
+  @Test
+  public void testReadOneLayer() throws IOException {
+    FileActions.exportArchive(file, model);
+    for (int i = 0; i < model.numPhoto(); i++) {
+      assertArrayEquals(pixels(model.getLayer(i).getImage()),
+          pixels(FileActions.readArchiveLayer(file, model.getName(i))));
+    }
+  }
+
+  @Test
+  public void testSavingAgainReplacesTheFile() throws IOException {
+    FileActions.exportArchive(file, model);
+    model.deleteLayer("layer 0");
+    FileActions.exportArchive(file, model);
+    LayerModel read = new LayerModel();
+    FileActions.importArchive(file, read);
+    assertEquals(4, read.numPhoto());
+    assertEquals(1, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testUnknownLayer() throws IOException {
+    FileActions.exportArchive(file, model);
+    try {
+      FileActions.readArchiveLayer(file, "nope");
+      fail("A missing layer was read.");
+    } catch (IllegalArgumentException e) {
+      assertEquals("There is no layer named nope", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongExtension() throws IOException {
+    FileActions.exportArchive(new File(folder.getRoot(), "project.zip").getPath(), model);
+  }
+
+  @Test
+  public void testDamagedFiles() throws IOException {
+    FileActions.exportArchive(file, model);
+    Path path = new File(file).toPath();
+    byte[] bytes = Files.readAllBytes(path);
+
+    byte[] damaged = bytes.clone();
+    for (int i = damaged.length / 2; i < damaged.length / 2 + 64; i++) {
+      damaged[i] ^= 0x55;
+    }
+    Files.write(path, damaged);
+    assertRefused();
+
+    Files.write(path, Arrays.copyOf(bytes, 20));
+    assertRefused();
+
+    damaged = bytes.clone();
+    damaged[0] ^= 1;
+    Files.write(path, damaged);
+    assertRefused();
+  }
+
+  private void assertRefused() throws IOException {
+    LayerModel read = new LayerModel();
+    try {
+      FileActions.importArchive(file, read);
+      fail("A damaged project file was read.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Invalid project file"));
+    }
+    assertEquals(0, read.numPhoto());
+  }
+
+  private static int[] pixels(ImageRep image) {
+    int[] data = new int[image.getHeight() * image.getWidth()];
+    image.getRGB(0, 0, image.getHeight(), image.getWidth(), data, 0, image.getWidth());
+    return data;
+  }
+}
@@ -0,0 +1,158 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that filtering gives exactly what a direct two-dimensional convolution gives, whether the
+ * kernel runs as two 1D passes, in fixed point, or visiting every weight, for every edge mode.
+ */
+public class ConvolutionTest {
+
+  private static final double[][] BLUR = {
+      {1 / 16.0, 1 / 8.0, 1 / 16.0},
+      {1 / 8.0, 1 / 4.0, 1 / 8.0},
+      {1 / 16.0, 1 / 8.0, 1 / 16.0}};
+
+  private static final double[][] SHARPEN = {
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}};
+
+  private static final double[][] SOBEL = {
+      {1, 0, -1},
+      {2, 0, -2},
+      {1, 0, -1}};
+
+  private static final double[][] GAUSSIAN = gaussian();
+
+  @Test
+  public void testDyadicKernelsAreSeparableInBothForms() {
+    for (double[][] weights : List.of(BLUR, SOBEL, GAUSSIAN)) {
+      Kernel kernel = Kernel.of(weights);
+      assertTrue(kernel.isSeparable());
+      assertNotNull(kernel.withFixedPoint().fixed().column());
+    }
+    assertFalse(Kernel.of(SHARPEN).isSeparable());
+  }
+
+  @Test
+  public void testFloatingPointMatchesDirectConvolution() {
+    PackedImage image = randomImage(61, 47, 1);
+    for (EdgeMode edges : EdgeMode.values()) {
+      for (double[][] weights : List.of(BLUR, SHARPEN, SOBEL, GAUSSIAN)) {
+        Kernel kernel = Kernel.of(weights);
+        int[] expected = direct(image, weights, edges);
+        assertArrayEquals(edges.toString(), expected, pixels(image.filterPhoto(kernel, edges)));
+        assertArrayEquals(edges.toString(), expected,
+            pixels(PlanarImage.of(image).filterPhoto(kernel, edges)));
+      }
+    }
+  }
+
+  @Test
+  public void testFixedPointMatchesDirectConvolution() {
+    PackedImage image = randomImage(61, 47, 2);
+    for (EdgeMode edges : EdgeMode.values()) {
+      for (double[][] weights : List.of(BLUR, SHARPEN, SOBEL, GAUSSIAN)) {
+        Kernel kernel = Kernel.of(weights).withFixedPoint();
+        int[] expected = direct(image, weights, edges);
+        assertArrayEquals(edges.toString(), expected, pixels(image.filterPhoto(kernel, edges)));
+        assertArrayEquals(edges.toString(), expected,
+            pixels(PlanarImage.of(image).filterPhoto(kernel, edges)));
+      }
+    }
+  }
+
+  @Test
+  public void testImageSmallerThanKernel() {
+    PackedImage image = randomImage(2, 3, 3);
+    for (EdgeMode edges : EdgeMode.values()) {
+      for (Kernel kernel : List.of(Kernel.of(GAUSSIAN), Kernel.of(GAUSSIAN).withFixedPoint())) {
+        assertArrayEquals(edges.toString(), direct(image, GAUSSIAN, edges),
+            pixels(image.filterPhoto(kernel, edges)));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelBandsMatchOneThread() {
+    PackedImage image = randomImage(700, 650, 4);
+    Kernel kernel = Kernel.of(SHARPEN);
+    int[] parallel = pixels(image.filterPhoto(kernel, EdgeMode.MIRROR));
+    int threads = WorkerPool.getParallelism();
+    WorkerPool.setParallelism(1);
+    try {
+      assertArrayEquals(pixels(image.filterPhoto(kernel, EdgeMode.MIRROR)), parallel);
+    } finally {
+      WorkerPool.setParallelism(threads);
+    }
+  }
+
+  /**
+   * Filters an image by summing every weight of the kernel for every pixel.
+   */
+  private static int[] direct(PackedImage image, double[][] kernel, EdgeMode edges) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int radius = kernel.length / 2;
+    int[] result = new int[height * width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double red = 0;
+        double green = 0;
+        double blue = 0;
+        for (int i = 0; i < kernel.length; i++) {
+          for (int j = 0; j < kernel.length; j++) {
+            int row = edges.map(y + i - radius, height);
+            int column = edges.map(x + j - radius, width);
+            if (row < 0 || column < 0) {
+              continue;
+            }
+            int value = image.getPackedAt(row, column);
+            red += kernel[i][j] * ((value >> 16) & 0xFF);
+            green += kernel[i][j] * ((value >> 8) & 0xFF);
+            blue += kernel[i][j] * (value & 0xFF);
+          }
+        }
+        result[y * width + x] = PackedImage.pack(PackedImage.clamp(red), PackedImage.clamp(green),
+            PackedImage.clamp(blue));
+      }
+    }
+    return result;
+  }
+
+  private static double[][] gaussian() {
+    double[] binomial = {1, 4, 6, 4, 1};
+    double[][] kernel = new double[5][5];
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        kernel[i][j] = binomial[i] * binomial[j] / 256;
+      }
+    }
+    return kernel;
+  }
+
+  private static PackedImage randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[height * width];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = 0xFF000000 | random.nextInt(1 << 24);
+    }
+    return new PackedImage(height, width, data);
+  }
+
+  private static int[] pixels(ImageRep image) {
+    int[] data = new int[image.getHeight() * image.getWidth()];
+    image.getRGB(0, 0, image.getHeight(), image.getWidth(), data, 0, image.getWidth());
+    return data;
+  }
+}
@@ -0,0 +1,165 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests undo and redo in a layer model: that they bring back the pixels and layers of earlier
+ * states, that the memory limit of the history drops the oldest states and frees their images,
+ * and that duplicated layers share their image until one of them changes.
+ */
+public class HistoryTest {
+
+  private final PackedImage image = randomImage(40, 30, 5);
+
+  @Test
+  public void testUndoAndRedoRestorePixels() {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(image);
+    model.blur();
+    int[] blurred = pixels(model.getLayer(0).getImage());
+    model.sepia();
+    int[] sepia = pixels(model.getLayer(0).getImage());
+
+    model.undo();
+    assertArrayEquals(blurred, pixels(model.getLayer(0).getImage()));
+    model.undo();
+    assertArrayEquals(pixels(image), pixels(model.getLayer(0).getImage()));
+    assertTrue(model.canRedo());
+    model.redo();
+    assertArrayEquals(blurred, pixels(model.getLayer(0).getImage()));
+    model.redo();
+    assertArrayEquals(sepia, pixels(model.getLayer(0).getImage()));
+    assertFalse(model.canRedo());
+  }
+
+  @Test
+  public void testChangeDropsRedo() {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(image);
+    model.blur();
+    model.undo();
+    assertTrue(model.canRedo());
+    model.greyscale();
+    assertFalse(model.canRedo());
+  }
+
+  @Test
+  public void testNothingToUndoOrRedo() {
+    LayerModel model = new LayerModel();
+    try {
+      model.undo();
+      fail("An empty history was undone.");
+    } catch (IllegalStateException e) {
+      assertEquals("There is nothing to undo.", e.getMessage());
+    }
+    try {
+      model.redo();
+      fail("An empty history was redone.");
+    } catch (IllegalStateException e) {
+      assertEquals("There is nothing to redo.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testMemoryLimitDropsOldestStates() {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(image);
+    for (int i = 0; i < 6; i++) {
+      model.blur();
+      // filters only run when the image is needed, so each state gets an image of its own
+      model.getLayer(0).getImage();
+    }
+    // each image of 40 by 30 pixels is counted as 4800 bytes, so two states fit
+    model.setHistoryLimit(12000);
+    int undos = 0;
+    while (model.canUndo()) {
+      model.undo();
+      undos++;
+    }
+    assertEquals(2, undos);
+    assertEquals(2, redoAll(model));
+
+    model.setHistoryLimit(0);
+    assertFalse(model.canUndo());
+    assertFalse(model.canRedo());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeLimit() {
+    new LayerModel().setHistoryLimit(-1);
+  }
+
+  @Test
+  public void testDroppedStatesFreeTheirImages() {
+    OffHeapImage uploaded = OffHeapImage.of(image);
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(uploaded);
+    model.blur();
+    model.getLayer(0).getImage();
+    assertFalse(uploaded.isReleased());
+
+    model.setHistoryLimit(0);
+    assertTrue(uploaded.isReleased());
+  }
+
+  @Test
+  public void testDuplicateSharesImageUntilChanged() {
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(image);
+    model.duplicateLayer("b", "a");
+    assertEquals("b", model.getName(1));
+    assertSame(model.getLayer(0).getImage(), model.getLayer(1).getImage());
+
+    model.setCurrent("b");
+    model.blur();
+    assertArrayEquals(pixels(image), pixels(model.getLayer(0).getImage()));
+    assertArrayEquals(pixels(image.filterPhoto(Kernel.of(new double[][] {
+        {1 / 16.0, 1 / 8.0, 1 / 16.0},
+        {1 / 8.0, 1 / 4.0, 1 / 8.0},
+        {1 / 16.0, 1 / 8.0, 1 / 16.0}}), EdgeMode.ZERO)),
+        pixels(model.getLayer(1).getImage()));
+
+    model.undo();
+    assertSame(model.getLayer(0).getImage(), model.getLayer(1).getImage());
+    model.undo();
+    assertEquals(1, model.numPhoto());
+    assertArrayEquals(pixels(image), pixels(model.getLayer(0).getImage()));
+  }
+
+  private static int redoAll(LayerModel model) {
+    int redos = 0;
+    while (model.canRedo()) {
+      model.redo();
+      redos++;
+    }
+    return redos;
+  }
+
+  private static PackedImage randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[height * width];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = 0xFF000000 | random.nextInt(1 << 24);
+    }
+    return new PackedImage(height, width, data);
+  }
+
+  private static int[] pixels(ImageRep image) {
+    int[] data = new int[image.getHeight() * image.getWidth()];
+    image.getRGB(0, 0, image.getHeight(), image.getWidth(), data, 0, image.getWidth());
+    return data;
+  }
+}
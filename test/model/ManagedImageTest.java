@@ -0,0 +1,180 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that images kept off the heap (OffHeapImage) and in tiles on the disk (TiledImage) give
+ * exactly the same pixels as a PackedImage for every operation, and that their storage is freed
+ * once no layer holds them.
+ */
+public class ManagedImageTest {
+
+  private static final double[][] SEPIA = {
+      {0.393, 0.769, 0.189},
+      {0.349, 0.686, 0.168},
+      {0.272, 0.534, 0.131}};
+
+  private static final double[][] GREY = {
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722}};
+
+  // more than one band of an OffHeapImage, and tiles that do not fill the last row and column
+  private final PackedImage packed = randomImage(1100, 1000, 7);
+
+  @Test
+  public void testOffHeapImageMatchesPackedImage() {
+    OffHeapImage image = OffHeapImage.of(packed);
+    assertArrayEquals(pixels(packed), pixels(image));
+    assertSameOperations(image);
+  }
+
+  @Test
+  public void testTiledImageMatchesPackedImage() {
+    TileCache cache = new TileCache(6);
+    TiledImage image = tiled(packed, cache);
+    assertArrayEquals(pixels(packed), pixels(image));
+    assertSameOperations(image);
+    assertTrue(cache.getEvictions() > 0);
+  }
+
+  @Test
+  public void testTiledImageReadsRectanglesAcrossTiles() {
+    TiledImage image = tiled(packed, new TileCache(4));
+    int[] expected = new int[7 * 300];
+    int[] actual = new int[7 * 300];
+    packed.getRGB(250, 500, 7, 300, expected, 0, 300);
+    image.getRGB(250, 500, 7, 300, actual, 0, 300);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testTiledImageKernelWiderThanImage() {
+    PackedImage small = randomImage(3, 4, 8);
+    TiledImage image = tiled(small, new TileCache(2));
+    double[][] weights = new double[7][7];
+    for (double[] row : weights) {
+      Arrays.fill(row, 1 / 64.0);
+    }
+    Kernel kernel = Kernel.of(weights);
+    for (EdgeMode edges : EdgeMode.values()) {
+      assertArrayEquals(edges.toString(), pixels(small.filterPhoto(kernel, edges)),
+          pixels(image.filterPhoto(kernel, edges)));
+    }
+  }
+
+  @Test
+  public void testImageIsFreedWhenTheLastLayerDropsIt() {
+    for (ManagedImage image : List.of(OffHeapImage.of(packed), tiled(packed, new TileCache(4)))) {
+      LayerModel model = new LayerModel();
+      model.setHistoryLimit(0);
+      model.addLayer("kept");
+      model.addLayer("a");
+      model.setCurrent("a");
+      model.upload(image);
+      model.duplicateLayer("b", "a");
+      model.deleteLayer("a");
+      assertFalse(image.isReleased());
+      model.deleteLayer("b");
+      assertTrue(image.isReleased());
+      try {
+        image.getPackedAt(0, 0);
+        fail("A freed image was read.");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testDiscardLeavesHeldImages() {
+    OffHeapImage held = OffHeapImage.of(packed);
+    LayerModel model = new LayerModel();
+    model.addLayer("a");
+    model.upload(held);
+    held.discard();
+    assertFalse(held.isReleased());
+
+    OffHeapImage loose = OffHeapImage.of(packed);
+    loose.discard();
+    assertTrue(loose.isReleased());
+  }
+
+  /**
+   * Checks that filters in every edge mode, colors, color chains, tone adjustments and the single
+   * pixel operations give the same pixels as on the packed image.
+   */
+  private void assertSameOperations(ImageRep image) {
+    double[][] blur = {
+        {1 / 16.0, 1 / 8.0, 1 / 16.0},
+        {1 / 8.0, 1 / 4.0, 1 / 8.0},
+        {1 / 16.0, 1 / 8.0, 1 / 16.0}};
+    double[][] box = new double[5][5];
+    for (double[] row : box) {
+      Arrays.fill(row, 0.04);
+    }
+    for (EdgeMode edges : EdgeMode.values()) {
+      for (double[][] weights : List.of(blur, box)) {
+        Kernel kernel = Kernel.of(weights);
+        assertArrayEquals(edges.toString(), pixels(packed.filterPhoto(kernel, edges)),
+            pixels(image.filterPhoto(kernel, edges)));
+      }
+    }
+    assertArrayEquals(pixels(packed.colorPhoto(SEPIA)), pixels(image.colorPhoto(SEPIA)));
+    assertArrayEquals(pixels(packed.colorChain(List.of(SEPIA, GREY))),
+        pixels(((ManagedImage) image).colorChain(List.of(SEPIA, GREY))));
+    ToneTable gamma = ToneTable.gamma(1.7);
+    assertArrayEquals(pixels(packed.adjustPhoto(gamma)), pixels(image.adjustPhoto(gamma)));
+
+    int height = packed.getHeight();
+    int width = packed.getWidth();
+    IPixel[][] expected = new IPixel[height][width];
+    IPixel[][] actual = new IPixel[height][width];
+    for (int[] at : new int[][] {{0, 0}, {255, 256}, {height - 1, width - 1}}) {
+      packed.applyFilterToPixel(box, at[0], at[1], expected);
+      image.applyFilterToPixel(box, at[0], at[1], actual);
+      assertSamePixel(expected[at[0]][at[1]], actual[at[0]][at[1]]);
+      packed.applyColorToPixel(SEPIA, at[0], at[1], expected);
+      image.applyColorToPixel(SEPIA, at[0], at[1], actual);
+      assertSamePixel(expected[at[0]][at[1]], actual[at[0]][at[1]]);
+    }
+  }
+
+  private static TiledImage tiled(PackedImage image, TileCache cache) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    TiledImage tiled = new TiledImage(height, width, cache);
+    tiled.setRGB(0, 0, height, width, image.data(), 0, width);
+    return tiled;
+  }
+
+  private static PackedImage randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[height * width];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = 0xFF000000 | random.nextInt(1 << 24);
+    }
+    return new PackedImage(height, width, data);
+  }
+
+  private static int[] pixels(ImageRep image) {
+    int[] data = new int[image.getHeight() * image.getWidth()];
+    image.getRGB(0, 0, image.getHeight(), image.getWidth(), data, 0, image.getWidth());
+    return data;
+  }
+
+  private static void assertSamePixel(IPixel expected, IPixel actual) {
+    assertEquals(expected.getRed(), actual.getRed());
+    assertEquals(expected.getGreen(), actual.getGreen());
+    assertEquals(expected.getBlue(), actual.getBlue());
+  }
+}